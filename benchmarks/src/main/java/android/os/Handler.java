@@ -0,0 +1,49 @@
+package android.os;
+
+/**
+ * Stand-in for the Android Handler, so BluetoothSerialService can run in
+ * the benchmarks. A message is handled right away on the thread that sends
+ * it instead of on a looper. Messages come from a pool like on Android, so
+ * sending one doesn't allocate. Delayed runnables never run, the
+ * benchmarks don't reconnect.
+ */
+public class Handler {
+
+    public void handleMessage(Message msg) {
+    }
+
+    public final Message obtainMessage(int what) {
+        return obtainMessage(what, 0, 0, null);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        return obtainMessage(what, 0, 0, obj);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2) {
+        return obtainMessage(what, arg1, arg2, null);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        Message msg = Message.obtain();
+        msg.target = this;
+        msg.what = what;
+        msg.arg1 = arg1;
+        msg.arg2 = arg2;
+        msg.obj = obj;
+        return msg;
+    }
+
+    public final boolean sendMessage(Message msg) {
+        handleMessage(msg);
+        msg.recycle();
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+}
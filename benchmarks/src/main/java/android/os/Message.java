@@ -0,0 +1,59 @@
+package android.os;
+
+/**
+ * Stand-in for the Android Message, see {@link Handler}.
+ */
+public final class Message {
+
+    private static final Object POOL_LOCK = new Object();
+    private static Message pool;
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    Handler target;
+    private Bundle data;
+    private Message next;
+
+    public static Message obtain() {
+        synchronized (POOL_LOCK) {
+            if (pool != null) {
+                Message msg = pool;
+                pool = msg.next;
+                msg.next = null;
+                return msg;
+            }
+        }
+        return new Message();
+    }
+
+    public Bundle getData() {
+        if (data == null) {
+            data = new Bundle();
+        }
+        return data;
+    }
+
+    public void setData(Bundle data) {
+        this.data = data;
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+
+    void recycle() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        target = null;
+        data = null;
+        synchronized (POOL_LOCK) {
+            next = pool;
+            pool = this;
+        }
+    }
+}
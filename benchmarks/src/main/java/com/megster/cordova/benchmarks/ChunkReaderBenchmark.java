@@ -0,0 +1,64 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.ChunkReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a 1 MB bulk transfer that is already waiting in the socket, with
+ * the old fixed 1 KB buffer and with the adaptive one. Every chunk is a
+ * handler message on the device, so fewer chunks per MB is what counts.
+ * Each operation starts with a new reader, so the adaptive allocations are
+ * the buffer growing to 64 KB, which a connection only does once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkReaderBenchmark {
+
+    private static final int TRANSFER_SIZE = 1024 * 1024;
+
+    @Param({"1024", "adaptive"})
+    public String readBufferSize;
+
+    private byte[] transfer;
+
+    @Setup
+    public void setUp() {
+        transfer = TrafficProfile.BURSTY_4K.stream(TrafficProfile.delimiter(2), TRANSFER_SIZE, 42);
+    }
+
+    /**
+     * @return the number of chunks the transfer was read in
+     */
+    @Benchmark
+    public int bulkTransfer(Blackhole blackhole) throws Exception {
+        boolean adaptive = readBufferSize.equals("adaptive");
+        ChunkReader reader = new ChunkReader(new ByteArrayInputStream(transfer),
+                adaptive ? ChunkReader.DEFAULT_SIZE : Integer.parseInt(readBufferSize), adaptive, 0, 0);
+        int chunks = 0;
+        int bytes;
+        while ((bytes = reader.read()) > 0) {
+            blackhole.consume(reader.buffer()[bytes - 1]);
+            chunks++;
+        }
+        return chunks;
+    }
+}
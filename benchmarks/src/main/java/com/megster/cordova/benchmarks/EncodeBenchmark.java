@@ -0,0 +1,73 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.CharsetCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a writeString message with the connection's charset, compared
+ * with String.getBytes which the plugin used before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+    @Param({"GBK", "UTF-8", "US-ASCII"})
+    public String charsetName;
+
+    @Param({"16", "256", "4096"})
+    public int length;
+
+    /** Fraction of the message that is Chinese text, 0 for plain ASCII commands */
+    @Param({"0", "0.5"})
+    public double cjk;
+
+    private Charset charset;
+    private CharsetCodec codec;
+    private String message;
+
+    @Setup
+    public void setUp() {
+        charset = Charset.forName(charsetName);
+        codec = new CharsetCodec(charset);
+
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            if (random.nextDouble() < cjk) {
+                sb.append((char) (0x4E00 + random.nextInt(0x5000)));
+            } else {
+                sb.append((char) ('A' + random.nextInt(26)));
+            }
+        }
+        message = sb.toString();
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return message.getBytes(charset);
+    }
+}
@@ -0,0 +1,162 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.ByteRingBuffer;
+import com.megster.cordova.Framer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cutting a stream of 48 byte binary records into frames, what a raw
+ * subscriber with the framing option costs on the dispatch thread.
+ *
+ * The stream arrives in uneven chunks so frames are split across reads.
+ * Setup checks that every framing gives back the records it was fed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FramerBenchmark {
+
+    private static final int RECORD_SIZE = 48;
+    private static final int RECORDS = 256;
+
+    @Param({"fixed", "lengthPrefixed", "cobs", "slip"})
+    public String framing;
+
+    private byte[][] records;
+    private byte[] stream;
+    private int[] chunks;
+    private Framer framer;
+    private final ByteRingBuffer buffer = new ByteRingBuffer();
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        records = new byte[RECORDS][RECORD_SIZE];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            random.nextBytes(record);
+            byte[] encoded = encode(record);
+            out.write(encoded, 0, encoded.length);
+        }
+        stream = out.toByteArray();
+
+        chunks = new int[stream.length];
+        int count = 0;
+        for (int remaining = stream.length; remaining > 0; ) {
+            int size = Math.min(8 + random.nextInt(120), remaining);
+            chunks[count++] = size;
+            remaining -= size;
+        }
+        chunks = Arrays.copyOf(chunks, count);
+
+        framer = Framer.fromOption(new JSONObject(option()));
+        check();
+    }
+
+    private String option() {
+        if (framing.equals("fixed")) {
+            return "{type: 'fixed', size: " + RECORD_SIZE + "}";
+        } else if (framing.equals("lengthPrefixed")) {
+            return "{type: 'lengthPrefixed', lengthSize: 2, stripHeader: true}";
+        }
+        return "{type: '" + framing + "'}";
+    }
+
+    private byte[] encode(byte[] record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (framing.equals("fixed")) {
+            out.write(record, 0, record.length);
+        } else if (framing.equals("lengthPrefixed")) {
+            out.write(record.length >> 8);
+            out.write(record.length & 0xFF);
+            out.write(record, 0, record.length);
+        } else if (framing.equals("cobs")) {
+            int codeIndex = 0;
+            int code = 1;
+            byte[] encoded = new byte[record.length + 2];
+            int write = 1;
+            for (byte b : record) {
+                if (b == 0) {
+                    encoded[codeIndex] = (byte) code;
+                    codeIndex = write++;
+                    code = 1;
+                } else {
+                    encoded[write++] = b;
+                    code++;
+                }
+            }
+            encoded[codeIndex] = (byte) code;
+            out.write(encoded, 0, write);
+            out.write(0);
+        } else {
+            for (byte b : record) {
+                if (b == (byte) 0xC0) {
+                    out.write(0xDB);
+                    out.write(0xDC);
+                } else if (b == (byte) 0xDB) {
+                    out.write(0xDB);
+                    out.write(0xDD);
+                } else {
+                    out.write(b);
+                }
+            }
+            out.write(0xC0);
+        }
+        return out.toByteArray();
+    }
+
+    private void check() {
+        int frames = 0;
+        int offset = 0;
+        for (int chunk : chunks) {
+            buffer.write(stream, offset, chunk);
+            offset += chunk;
+            int length;
+            while ((length = framer.next(buffer)) >= 0) {
+                if (!Arrays.equals(Arrays.copyOf(framer.frame(), length), records[frames++])) {
+                    throw new IllegalStateException(framing + " frame " + (frames - 1) + " doesn't match");
+                }
+            }
+        }
+        if (frames != RECORDS || buffer.available() != 0) {
+            throw new IllegalStateException(framing + " gave " + frames + " frames");
+        }
+    }
+
+    /**
+     * One pass over the stream, all records.
+     */
+    @Benchmark
+    public void frameStream(Blackhole blackhole) {
+        int offset = 0;
+        for (int chunk : chunks) {
+            buffer.write(stream, offset, chunk);
+            offset += chunk;
+            int length;
+            while ((length = framer.next(buffer)) >= 0) {
+                blackhole.consume(length);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.ByteArrayPool;
+import com.megster.cordova.ByteRingBuffer;
+import com.megster.cordova.ChunkReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work ConnectedThread.run does for every socket read, without the
+ * socket: put the chunk into the read buffer and/or copy it for a raw
+ * subscriber. The raw copy goes into a pooled array of the reader's buffer
+ * size that the dispatch thread gives back, rawUnpooled is the new array per
+ * read the pool replaced. One operation is the whole stream, about 64 KB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestBenchmark {
+
+    private static final int STREAM_BYTES = 64 * 1024;
+
+    @Param({"NMEA", "BINARY_FRAMES", "BURSTY_4K"})
+    public TrafficProfile profile;
+
+    private byte[] stream;
+    private int[] chunks;
+    private ByteRingBuffer buffer;
+    private ByteArrayPool pool;
+
+    @Setup
+    public void setUp() {
+        stream = profile.stream(TrafficProfile.delimiter(2), STREAM_BYTES, 42);
+        chunks = profile.chunks(stream.length, 42);
+        buffer = new ByteRingBuffer();
+        pool = new ByteArrayPool();
+    }
+
+    @Benchmark
+    public int buffered() {
+        int offset = 0;
+        for (int chunk : chunks) {
+            buffer.write(stream, offset, chunk);
+            offset += chunk;
+        }
+        int available = buffer.available();
+        buffer.clear();
+        return available;
+    }
+
+    @Benchmark
+    public void raw(Blackhole blackhole) {
+        int offset = 0;
+        for (int chunk : chunks) {
+            byte[] rawdata = pool.acquire(ChunkReader.DEFAULT_SIZE);
+            System.arraycopy(stream, offset, rawdata, 0, chunk);
+            blackhole.consume(rawdata);
+            pool.release(rawdata);
+            offset += chunk;
+        }
+    }
+
+    @Benchmark
+    public void rawUnpooled(Blackhole blackhole) {
+        int offset = 0;
+        for (int chunk : chunks) {
+            byte[] rawdata = new byte[chunk];
+            System.arraycopy(stream, offset, rawdata, 0, chunk);
+            blackhole.consume(rawdata);
+            offset += chunk;
+        }
+    }
+}
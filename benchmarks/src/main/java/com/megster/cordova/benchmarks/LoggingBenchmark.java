@@ -0,0 +1,205 @@
+package com.megster.cordova.benchmarks;
+
+import android.os.Handler;
+import android.os.Message;
+import android.util.Log;
+
+import com.megster.cordova.BluetoothSerialService;
+import com.megster.cordova.ByteArrayPool;
+import com.megster.cordova.ByteRingBuffer;
+import com.megster.cordova.ConnectionStatistics;
+import com.megster.cordova.LogLevel;
+import com.megster.cordova.SerialTransport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reader thread of a connected BluetoothSerialService with the log
+ * level off or at debug: every chunk is read, counted, buffered and copied
+ * into a pooled array for a raw subscriber. The device plays the traffic
+ * profile, the dispatch thread is the stand-in Handler, which gives the
+ * arrays back. One operation is the whole stream, about 64 KB.
+ *
+ * With the level off gc.alloc.rate.norm must be 0 and nothing may be
+ * logged, LoggingAllocationTest checks it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    private static final int STREAM_BYTES = 64 * 1024;
+
+    @Param({"off", "debug"})
+    public String level;
+
+    @Param({"NMEA", "BINARY_FRAMES", "BURSTY_4K"})
+    public TrafficProfile profile;
+
+    private ReplayTransport device;
+    private ByteRingBuffer buffer;
+    private BluetoothSerialService service;
+    private volatile long delivered;
+    private long logCalls;
+
+    @Setup
+    public void setUp() {
+        LogLevel.set(LogLevel.parse(level));
+        byte[] stream = profile.stream(TrafficProfile.delimiter(2), STREAM_BYTES, 42);
+        device = new ReplayTransport(stream, profile.chunks(stream.length, 42));
+        buffer = new ByteRingBuffer();
+        final ByteArrayPool rawPool = new ByteArrayPool();
+        Handler dispatch = new Handler() {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == BluetoothSerialService.MESSAGE_READ_RAW) {
+                    rawPool.release((byte[]) msg.obj);
+                    delivered += msg.arg1;
+                }
+            }
+        };
+        service = new BluetoothSerialService(dispatch, buffer, rawPool, new ConnectionStatistics());
+        service.setConsumers(BluetoothSerialService.CONSUMER_BUFFER | BluetoothSerialService.CONSUMER_RAW);
+        service.connected(device);
+        logCalls = Log.calls();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkLogging() {
+        if (LogLevel.get() == LogLevel.OFF && Log.calls() != logCalls) {
+            throw new IllegalStateException((Log.calls() - logCalls) + " messages logged with the level off");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.stop();
+    }
+
+    @Benchmark
+    public int read() {
+        long target = device.play();
+        while (delivered < target) {
+            Thread.yield();
+        }
+        int available = buffer.available();
+        buffer.clear();
+        return available;
+    }
+
+    /**
+     * A device that sends the stream once for every play(), in the chunks
+     * of the profile. Reads wait for the next play without allocating.
+     */
+    private static class ReplayTransport implements SerialTransport {
+        private final byte[] stream;
+        private final int[] chunks;
+        private volatile long played;
+        private volatile long read;
+        private volatile boolean closed;
+        private int chunk;
+        private int chunkOffset;
+        private int streamOffset;
+
+        ReplayTransport(byte[] stream, int[] chunks) {
+            this.stream = stream;
+            this.chunks = chunks;
+        }
+
+        /**
+         * @return the bytes sent so far, including this play
+         */
+        long play() {
+            played += stream.length;
+            return played;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    int n = read(b, 0, 1);
+                    return n < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return ReplayTransport.this.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return read == played ? 0 : chunks[chunk] - chunkOffset;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    // the device ignores what it is sent
+                }
+            };
+        }
+
+        private int read(byte[] b, int off, int len) throws IOException {
+            while (read == played) {
+                if (closed) {
+                    throw new IOException("Socket closed");
+                }
+                Thread.yield();
+            }
+            int n = Math.min(len, chunks[chunk] - chunkOffset);
+            System.arraycopy(stream, streamOffset, b, off, n);
+            streamOffset += n;
+            chunkOffset += n;
+            if (chunkOffset == chunks[chunk]) {
+                chunkOffset = 0;
+                if (++chunk == chunks.length) {
+                    chunk = 0;
+                    streamOffset = 0;
+                }
+            }
+            read += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public String getName() {
+            return "Replay";
+        }
+    }
+}
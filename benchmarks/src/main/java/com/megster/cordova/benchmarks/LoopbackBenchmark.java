@@ -0,0 +1,118 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.BluetoothSerialWriter;
+import com.megster.cordova.LoopbackTransport;
+import com.megster.cordova.SerialIoPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes going through the writer thread and a loopback link to a device
+ * that reads everything. One operation is 64 writes of writeSize bytes,
+ * finished when every write callback was called. The writer runs on its
+ * own thread, or on the writer threads of a shared SerialIoPool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+
+    private static final int WRITES = 64;
+
+    @Param({"20", "990"})
+    public int writeSize;
+
+    /** Bytes a write batch may hold, 1 effectively turns batching off */
+    @Param({"1", "990"})
+    public int batchSize;
+
+    @Param({"connection", "shared"})
+    public String threads;
+
+    private SerialIoPool pool;
+    private LoopbackTransport transport;
+    private BluetoothSerialWriter writer;
+    private Thread device;
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        transport = new LoopbackTransport();
+        transport.connect();
+        writer = new BluetoothSerialWriter(transport.getOutputStream(),
+                WRITES, batchSize, BluetoothSerialWriter.DEFAULT_LINGER_MILLIS);
+        if (threads.equals("shared")) {
+            pool = new SerialIoPool(SerialIoPool.DEFAULT_IO_THREADS, SerialIoPool.DEFAULT_CONNECT_THREADS,
+                    SerialIoPool.DEFAULT_POLL_MILLIS);
+            writer.start(pool.writeExecutor());
+        } else {
+            writer.start();
+        }
+        data = new byte[writeSize];
+
+        final InputStream in = transport.getDeviceInputStream();
+        device = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[4096];
+                try {
+                    while (in.read(buffer) >= 0) {
+                        // drop it
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }, "LoopbackDevice");
+        device.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        writer.close("Benchmark finished");
+        transport.close();
+        device.join();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void write() throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(WRITES);
+        BluetoothSerialWriter.Callback callback = new BluetoothSerialWriter.Callback() {
+            @Override
+            public void onWritten(int queued) {
+                written.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new IllegalStateException(message);
+            }
+        };
+        for (int i = 0; i < WRITES; i++) {
+            writer.write(data, callback);
+        }
+        written.await();
+    }
+}
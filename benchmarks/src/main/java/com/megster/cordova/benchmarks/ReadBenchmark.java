@@ -0,0 +1,112 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.ByteRingBuffer;
+import com.megster.cordova.DelimiterScanner;
+import com.megster.cordova.SerialReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * read, readUntil and delimiter subscribers, the way BluetoothSerialConnection
+ * uses them: the stream arrives chunk by chunk and after every chunksPerPoll
+ * chunks the buffer is drained. One operation is the whole stream, about
+ * 64 KB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadBenchmark {
+
+    private static final int STREAM_BYTES = 64 * 1024;
+
+    @Param({"NMEA", "BINARY_FRAMES", "BURSTY_4K"})
+    public TrafficProfile profile;
+
+    @Param({"1", "2", "4"})
+    public int delimiterLength;
+
+    /** How many chunks are buffered before the app polls, i.e. how full the buffer is */
+    @Param({"1", "16"})
+    public int chunksPerPoll;
+
+    private byte[] stream;
+    private int[] chunks;
+    private String delimiter;
+    private SerialReader reader;
+    private ByteRingBuffer buffer;
+    private DelimiterScanner scanner;
+
+    @Setup
+    public void setUp() {
+        byte[] delimiterBytes = TrafficProfile.delimiter(delimiterLength);
+        stream = profile.stream(delimiterBytes, STREAM_BYTES, 42);
+        chunks = profile.chunks(stream.length, 42);
+        delimiter = new String(delimiterBytes, Charset.forName("US-ASCII"));
+
+        buffer = new ByteRingBuffer();
+        reader = new SerialReader(buffer, Charset.forName("UTF-8"));
+        scanner = new DelimiterScanner(delimiterBytes);
+    }
+
+    @Benchmark
+    public void readUntil(Blackhole blackhole) {
+        int offset = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            buffer.write(stream, offset, chunks[i]);
+            offset += chunks[i];
+            if ((i + 1) % chunksPerPoll == 0 || i == chunks.length - 1) {
+                String line;
+                while (!(line = reader.readUntil(delimiter)).isEmpty()) {
+                    blackhole.consume(line);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        int offset = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            buffer.write(stream, offset, chunks[i]);
+            offset += chunks[i];
+            if ((i + 1) % chunksPerPoll == 0 || i == chunks.length - 1) {
+                blackhole.consume(reader.read());
+            }
+        }
+    }
+
+    /**
+     * What the dispatch thread does for a subscriber after every MESSAGE_READ.
+     */
+    @Benchmark
+    public void subscriberFrames(Blackhole blackhole) {
+        int offset = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            buffer.write(stream, offset, chunks[i]);
+            offset += chunks[i];
+            if ((i + 1) % chunksPerPoll == 0 || i == chunks.length - 1) {
+                String frame;
+                while ((frame = reader.nextFrame(scanner)) != null) {
+                    blackhole.consume(frame);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.FrameBatch;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of turning frames into results for JavaScript.
+ *
+ * PluginResult needs the Android runtime, so this does the same encoding
+ * work it and the bridge queue do: a String is quoted as JSON, a byte[] is
+ * Base64 encoded when the result is built, a JSONArray is serialized, and a
+ * tagged result encodes the address as a second part. One operation is 64
+ * frames, sent one by one or as one batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultBenchmark {
+
+    private static final int FRAMES = 64;
+    private static final String ADDRESS = "00:11:22:AA:BB:CC";
+
+    @Param({"NMEA", "BINARY_FRAMES", "BURSTY_4K"})
+    public TrafficProfile profile;
+
+    private final byte[][] binaryFrames = new byte[FRAMES][];
+    private final String[] stringFrames = new String[FRAMES];
+    private FrameBatch batch;
+
+    @Setup
+    public void setUp() {
+        byte[] delimiter = TrafficProfile.delimiter(2);
+        byte[] stream = profile.stream(delimiter, 1, 42);
+        int frameLength = stream.length;
+        stream = profile.stream(delimiter, frameLength * FRAMES, 42);
+        for (int i = 0; i < FRAMES; i++) {
+            binaryFrames[i] = new byte[frameLength];
+            System.arraycopy(stream, i * frameLength, binaryFrames[i], 0, frameLength);
+            stringFrames[i] = new String(binaryFrames[i], Charset.forName("ISO-8859-1"));
+        }
+        batch = new FrameBatch(Integer.MAX_VALUE, FrameBatch.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    @Benchmark
+    public void strings(Blackhole blackhole) {
+        for (String frame : stringFrames) {
+            blackhole.consume(JSONObject.quote(frame));
+        }
+    }
+
+    @Benchmark
+    public void stringsTagged(Blackhole blackhole) {
+        for (String frame : stringFrames) {
+            blackhole.consume(JSONObject.quote(frame));
+            blackhole.consume(JSONObject.quote(ADDRESS));
+        }
+    }
+
+    @Benchmark
+    public String stringsBatched() {
+        for (String frame : stringFrames) {
+            batch.add(frame);
+        }
+        List<String> frames = batch.takeStrings();
+        return new JSONArray(frames).toString();
+    }
+
+    @Benchmark
+    public void bytes(Blackhole blackhole) {
+        for (byte[] frame : binaryFrames) {
+            blackhole.consume(Base64.getEncoder().encodeToString(frame));
+        }
+    }
+
+    @Benchmark
+    public String bytesBatched() {
+        for (byte[] frame : binaryFrames) {
+            batch.add(frame, 0, frame.length);
+        }
+        return Base64.getEncoder().encodeToString(batch.takeBytes());
+    }
+
+    /**
+     * The list a multipart result holds for a tagged frame.
+     */
+    @Benchmark
+    public void bytesTagged(Blackhole blackhole) {
+        for (byte[] frame : binaryFrames) {
+            List<String> parts = new ArrayList<>(2);
+            parts.add(Base64.getEncoder().encodeToString(frame));
+            parts.add(JSONObject.quote(ADDRESS));
+            blackhole.consume(parts);
+        }
+    }
+}
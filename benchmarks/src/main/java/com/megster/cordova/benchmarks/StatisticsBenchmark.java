@@ -0,0 +1,55 @@
+package com.megster.cordova.benchmarks;
+
+import com.megster.cordova.ConnectionStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What recording statistics adds to every chunk read and every write.
+ * gc.alloc.rate.norm should stay at 0.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+
+    private final ConnectionStatistics statistics = new ConnectionStatistics();
+
+    @Benchmark
+    public void readAndDeliver() {
+        statistics.recordRead(64, true);
+        statistics.recordFrameDelivered();
+        statistics.recordDelivered();
+    }
+
+    @Benchmark
+    public void write() {
+        statistics.recordQueueDepth(3);
+        statistics.recordWrite(990, 4);
+    }
+
+    /**
+     * Reader, writer and dispatch threads record at the same time.
+     */
+    @Benchmark
+    @Threads(3)
+    public void contended() {
+        statistics.recordRead(64, true);
+        statistics.recordDelivered();
+        statistics.recordWrite(990, 4);
+    }
+}
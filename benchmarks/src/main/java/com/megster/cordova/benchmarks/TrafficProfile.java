@@ -0,0 +1,130 @@
+package com.megster.cordova.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Kinds of traffic devices send, as a stream of bytes split into the
+ * chunks a socket read would return.
+ */
+public enum TrafficProfile {
+
+    /**
+     * GPS receiver: NMEA sentences of about 70 bytes ending in CR LF, read
+     * in small uneven chunks.
+     */
+    NMEA {
+        @Override
+        byte[] frame(Random random, byte[] delimiter) {
+            String sentence = String.format("$GPGGA,%06d.00,4807.%03d,N,01131.%03d,E,1,08,0.9,545.4,M,46.9,M,,*%02X",
+                    random.nextInt(240000), random.nextInt(1000), random.nextInt(1000), random.nextInt(256));
+            return withDelimiter(sentence.getBytes(ASCII), delimiter);
+        }
+
+        @Override
+        int chunkSize(Random random) {
+            return 8 + random.nextInt(56);
+        }
+    },
+
+    /**
+     * Sensor sending fixed-size 32 byte binary records, one record per read.
+     */
+    BINARY_FRAMES {
+        @Override
+        byte[] frame(Random random, byte[] delimiter) {
+            byte[] record = new byte[32 - delimiter.length];
+            random.nextBytes(record);
+            // keep the delimiter out of the payload so frames stay 32 bytes
+            for (int i = 0; i < record.length; i++) {
+                if (record[i] == delimiter[0]) {
+                    record[i]++;
+                }
+            }
+            return withDelimiter(record, delimiter);
+        }
+
+        @Override
+        int chunkSize(Random random) {
+            return 32;
+        }
+    },
+
+    /**
+     * Data logger dumping 4 KB blocks of text, read as fast as the socket
+     * delivers them, in 990 byte RFCOMM packets.
+     */
+    BURSTY_4K {
+        @Override
+        byte[] frame(Random random, byte[] delimiter) {
+            byte[] block = new byte[4096 - delimiter.length];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) ('a' + random.nextInt(26));
+            }
+            return withDelimiter(block, delimiter);
+        }
+
+        @Override
+        int chunkSize(Random random) {
+            return 990;
+        }
+    };
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    abstract byte[] frame(Random random, byte[] delimiter);
+
+    abstract int chunkSize(Random random);
+
+    /**
+     * @return at least minBytes of frames ending in the delimiter
+     */
+    public byte[] stream(byte[] delimiter, int minBytes, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(minBytes + 4096);
+        while (out.size() < minBytes) {
+            byte[] frame = frame(random, delimiter);
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the sizes of the reads the stream arrives in
+     */
+    public int[] chunks(int length, long seed) {
+        Random random = new Random(seed);
+        int[] sizes = new int[length];
+        int count = 0;
+        int remaining = length;
+        while (remaining > 0) {
+            int size = Math.min(chunkSize(random), remaining);
+            sizes[count++] = size;
+            remaining -= size;
+        }
+        int[] result = new int[count];
+        System.arraycopy(sizes, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * A delimiter of the given length, ending in a line feed like most
+     * devices use.
+     */
+    public static byte[] delimiter(int length) {
+        byte[] delimiter = new byte[length];
+        for (int i = 0; i < length - 1; i++) {
+            delimiter[i] = (byte) (i == length - 2 ? '\r' : '~');
+        }
+        delimiter[length - 1] = '\n';
+        return delimiter;
+    }
+
+    private static byte[] withDelimiter(byte[] data, byte[] delimiter) {
+        byte[] frame = new byte[data.length + delimiter.length];
+        System.arraycopy(data, 0, frame, 0, data.length);
+        System.arraycopy(delimiter, 0, frame, data.length, delimiter.length);
+        return frame;
+    }
+}
@@ -0,0 +1,107 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteRingBufferTest {
+
+    @Test
+    public void keepsTheOrderAcrossTheEndOfTheArray() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, 1024, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        buffer.write(new byte[] {1, 2, 3});
+        assertArrayEquals(new byte[] {1, 2}, buffer.read(2));
+        // wraps around, then grows while wrapped
+        buffer.write(new byte[] {4, 5, 6, 7, 8});
+
+        assertEquals(6, buffer.available());
+        assertEquals(5, buffer.get(2));
+        assertArrayEquals(new byte[] {3, 4, 5, 6, 7, 8}, buffer.readAll());
+    }
+
+    @Test
+    public void positionCountsEveryByteRemoved() {
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(new byte[10]);
+        buffer.skip(3);
+        buffer.read(2);
+        buffer.clear();
+
+        assertEquals(10, buffer.position());
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void peekAtAnIndexDoesNotConsume() {
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(new byte[] {1, 2, 3, 4});
+        byte[] dst = new byte[8];
+
+        assertEquals(2, buffer.peek(2, dst, 0, 8));
+        assertArrayEquals(new byte[] {3, 4}, new byte[] {dst[0], dst[1]});
+        assertEquals(4, buffer.available());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, 4, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+        buffer.write(new byte[] {1, 2, 3});
+        buffer.write(new byte[] {4, 5, 6});
+
+        assertArrayEquals(new byte[] {3, 4, 5, 6}, buffer.readAll());
+        assertEquals(2, buffer.droppedBytes());
+        // dropped bytes count as removed from the stream
+        assertEquals(6, buffer.position());
+    }
+
+    @Test
+    public void dropOldestKeepsTheTailOfAWriteLargerThanTheBuffer() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, 4, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+
+        assertEquals(4, buffer.write(new byte[] {1, 2, 3, 4, 5, 6}));
+        assertArrayEquals(new byte[] {3, 4, 5, 6}, buffer.readAll());
+        assertEquals(2, buffer.droppedBytes());
+    }
+
+    @Test
+    public void dropNewestKeepsWhatFits() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, 4, ByteRingBuffer.OverflowPolicy.DROP_NEWEST);
+        buffer.write(new byte[] {1, 2, 3});
+
+        assertEquals(1, buffer.write(new byte[] {4, 5, 6}));
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, buffer.readAll());
+        assertEquals(2, buffer.droppedBytes());
+    }
+
+    @Test
+    public void backpressureKeepsEverything() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4, 4, ByteRingBuffer.OverflowPolicy.BACKPRESSURE);
+        assertTrue(buffer.hasCapacity());
+        buffer.write(new byte[] {1, 2, 3, 4, 5, 6});
+
+        assertFalse(buffer.hasCapacity());
+        assertEquals(6, buffer.available());
+        assertEquals(0, buffer.droppedBytes());
+        buffer.skip(3);
+        assertTrue(buffer.hasCapacity());
+    }
+
+    @Test
+    public void shrinkingTheHighWaterMarkCountsTheDiscardedBytes() {
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(new byte[] {1, 2, 3, 4, 5, 6});
+        buffer.configure(2, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+
+        assertArrayEquals(new byte[] {5, 6}, buffer.readAll());
+        assertEquals(4, buffer.droppedBytes());
+        assertEquals(6, buffer.peakSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAHighWaterMarkOfZero() {
+        new ByteRingBuffer().configure(0, ByteRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+}
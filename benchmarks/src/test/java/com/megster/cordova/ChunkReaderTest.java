@@ -0,0 +1,97 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkReaderTest {
+
+    @Test
+    public void readsIntoAFixedBuffer() throws Exception {
+        ChunkReader reader = new ChunkReader(new ChunkStream(2000, 10), 1024, false, 0, 0);
+
+        assertEquals(1024, reader.read());
+        assertEquals(976, reader.read());
+        assertEquals(10, reader.read());
+        assertEquals(-1, reader.read());
+        assertEquals(1024, reader.size());
+    }
+
+    @Test
+    public void adaptiveBufferGrowsWhenReadsKeepFillingIt() throws Exception {
+        ChunkReader reader = new ChunkReader(new ChunkStream(repeat(64 * 1024, 40)), 1024, true, 0, 0);
+
+        for (int i = 0; i < 3; i++) {
+            reader.read();
+        }
+        assertEquals(2048, reader.size());
+    }
+
+    @Test
+    public void adaptiveBufferShrinksWhenReadsStaySmall() throws Exception {
+        ChunkReader reader = new ChunkReader(new ChunkStream(repeat(10, 40)), 1024, true, 0, 0);
+
+        for (int i = 0; i < 33; i++) {
+            assertEquals(10, reader.read());
+        }
+        assertEquals(512, reader.size());
+    }
+
+    @Test
+    public void shortReadsLingerForMoreBytes() throws Exception {
+        ChunkReader reader = new ChunkReader(new ChunkStream(5, 5, 5, 100), 1024, false, 12, 50);
+
+        // joined until at least minBytes, then the rest comes whole
+        assertEquals(15, reader.read());
+        assertEquals(100, reader.read());
+    }
+
+    private static int[] repeat(int chunk, int count) {
+        int[] chunks = new int[count];
+        Arrays.fill(chunks, chunk);
+        return chunks;
+    }
+
+    /**
+     * Returns its chunks one read at a time, like packets off a socket.
+     */
+    private static class ChunkStream extends InputStream {
+        private final ArrayDeque<Integer> chunks = new ArrayDeque<>();
+
+        ChunkStream(int... chunks) {
+            for (int chunk : chunks) {
+                this.chunks.add(chunk);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Integer chunk = chunks.poll();
+            if (chunk == null) {
+                return -1;
+            }
+            int n = Math.min(chunk, len);
+            if (n < chunk) {
+                chunks.push(chunk - n);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            Integer chunk = chunks.peek();
+            return chunk == null ? 0 : chunk;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionStateTest {
+
+    @Test
+    public void followsTheLifecycleOfAConnection() {
+        ConnectionState state = new ConnectionState("00:11:22:33:44:55");
+
+        assertTrue(state.transition(ConnectionState.State.CONNECTING, null));
+        assertTrue(state.transition(ConnectionState.State.CONNECTED, null));
+        assertTrue(state.transition(ConnectionState.State.RECONNECTING, "link lost"));
+        assertTrue(state.transition(ConnectionState.State.RECONNECTING, "attempt 2"));
+        assertTrue(state.transition(ConnectionState.State.CONNECTED, null));
+        assertTrue(state.transition(ConnectionState.State.CLOSED, null));
+        assertEquals(ConnectionState.State.CLOSED, state.get());
+    }
+
+    @Test
+    public void refusesTransitionsTheStateDoesNotAllow() {
+        ConnectionState state = new ConnectionState("00:11:22:33:44:55");
+
+        assertFalse(state.transition(ConnectionState.State.CONNECTED, null));
+        assertFalse(state.transition(ConnectionState.State.RECONNECTING, null));
+        assertEquals(ConnectionState.State.IDLE, state.get());
+        state.transition(ConnectionState.State.CONNECTING, null);
+        state.transition(ConnectionState.State.LOST, "refused");
+        assertFalse(state.transition(ConnectionState.State.CONNECTED, null));
+    }
+
+    @Test
+    public void tellsTheListenerAboutEveryTransitionInOrder() {
+        ConnectionState state = new ConnectionState("00:11:22:33:44:55");
+        final List<ConnectionState.Event> events = new ArrayList<>();
+        state.setListener(new ConnectionState.Listener() {
+            @Override
+            public void onTransition(ConnectionState.Event event) {
+                events.add(event);
+            }
+        });
+
+        state.transition(ConnectionState.State.CONNECTING, null);
+        state.transition(ConnectionState.State.CLOSED, "cancelled");
+        state.transition(ConnectionState.State.CONNECTED, null);
+
+        assertEquals(2, events.size());
+        assertEquals(ConnectionState.State.IDLE, events.get(0).getFrom());
+        assertEquals(ConnectionState.State.CONNECTING, events.get(0).getTo());
+        assertEquals(1, events.get(0).getSequence());
+        assertEquals(2, events.get(1).getSequence());
+        assertEquals("cancelled", events.get(1).getReason());
+        assertEquals("00:11:22:33:44:55", events.get(1).getAddress());
+    }
+}
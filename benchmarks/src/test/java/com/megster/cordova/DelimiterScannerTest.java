@@ -0,0 +1,71 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class DelimiterScannerTest {
+
+    @Test
+    public void findsADelimiterSplitAcrossChunks() {
+        DelimiterScanner scanner = new DelimiterScanner(bytes("\r\n"));
+        ByteRingBuffer buffer = new ByteRingBuffer();
+
+        buffer.write(bytes("$GPGGA\r"));
+        assertEquals(-1, scanner.scan(buffer));
+        buffer.write(bytes("\n$GP"));
+        assertEquals(8, scanner.scan(buffer));
+    }
+
+    @Test
+    public void findsADelimiterThatOverlapsAPartialMatch() {
+        // "aab" in "aaab" needs the KMP fallback, a naive restart misses it
+        DelimiterScanner scanner = new DelimiterScanner(bytes("aab"));
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(bytes("xaa"));
+        assertEquals(-1, scanner.scan(buffer));
+        buffer.write(bytes("ab"));
+
+        assertEquals(5, scanner.scan(buffer));
+    }
+
+    @Test
+    public void findsTheNextFrameAfterTheCallerConsumedOne() {
+        DelimiterScanner scanner = new DelimiterScanner(bytes("\n"));
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(bytes("one\ntwo\n"));
+
+        assertEquals(4, scanner.scan(buffer));
+        buffer.skip(4);
+        assertEquals(4, scanner.scan(buffer));
+    }
+
+    @Test
+    public void startsOverWhenTheBufferWasConsumedBehindItsBack() {
+        DelimiterScanner scanner = new DelimiterScanner(bytes("\r\n"));
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(bytes("abc\r"));
+        assertEquals(-1, scanner.scan(buffer));
+
+        // the partial match was cleared along with the data
+        buffer.clear();
+        buffer.write(bytes("\nxy\r\n"));
+        assertEquals(5, scanner.scan(buffer));
+    }
+
+    @Test
+    public void skipToIgnoresEarlierDelimiters() {
+        DelimiterScanner scanner = new DelimiterScanner(bytes("\n"));
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(bytes("old\nnew\n"));
+
+        scanner.skipTo(4);
+        assertEquals(8, scanner.scan(buffer));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
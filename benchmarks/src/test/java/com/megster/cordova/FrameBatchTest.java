@@ -0,0 +1,58 @@
+package com.megster.cordova;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameBatchTest {
+
+    @Test
+    public void packsBinaryFramesWithTheirEnds() {
+        FrameBatch batch = new FrameBatch(10, FrameBatch.DEFAULT_INTERVAL_MILLIS);
+        batch.add(new byte[] {9, 1, 2, 9}, 1, 2);
+        batch.add(new byte[] {3}, 0, 1);
+
+        byte[] packed = batch.takeBytes();
+
+        // count, end offsets, then the payload, little endian
+        assertArrayEquals(new byte[] {
+                2, 0, 0, 0,
+                2, 0, 0, 0,
+                3, 0, 0, 0,
+                1, 2, 3}, packed);
+        assertTrue(batch.isEmpty());
+        assertNull(batch.takeBytes());
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        FrameBatch batch = new FrameBatch(100, FrameBatch.DEFAULT_INTERVAL_MILLIS);
+        byte[] frame = new byte[100];
+        for (int i = 0; i < 40; i++) {
+            Arrays.fill(frame, (byte) i);
+            batch.add(frame, 0, frame.length);
+        }
+
+        byte[] packed = batch.takeBytes();
+
+        int header = 4 + 40 * 4;
+        assertEquals(header + 40 * 100, packed.length);
+        assertEquals(39, packed[packed.length - 1]);
+    }
+
+    @Test
+    public void isFullAtMaxFrames() {
+        FrameBatch batch = new FrameBatch(2, FrameBatch.DEFAULT_INTERVAL_MILLIS);
+
+        assertFalse(batch.add("one"));
+        assertTrue(batch.add("two"));
+        assertEquals(Arrays.asList("one", "two"), batch.takeStrings());
+        assertTrue(batch.isEmpty());
+    }
+}
@@ -0,0 +1,317 @@
+package com.megster.cordova;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FramerTest {
+
+    @Test
+    public void fixedLengthFramesArriveInAnyChunks() {
+        List<byte[]> frames = randomFrames(20, 8, 8, false);
+        for (int chunkSize : new int[] {1, 3, 8, 100}) {
+            assertFrames(frames, feed(new Framer.FixedLength(8), concat(frames), chunkSize));
+        }
+    }
+
+    @Test
+    public void fixedLengthKeepsAPartialFrame() {
+        Framer framer = new Framer.FixedLength(4);
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(new byte[] {1, 2, 3, 4, 5, 6});
+
+        assertEquals(4, framer.next(buffer));
+        assertEquals(-1, framer.next(buffer));
+        assertEquals(2, buffer.available());
+    }
+
+    @Test
+    public void lengthPrefixedBigEndianKeepsTheHeader() {
+        Framer framer = new Framer.LengthPrefixed(1, 2, false, 0, false, 1024);
+        byte[] frame = {0x7E, 0x00, 0x03, 'a', 'b', 'c'};
+
+        List<byte[]> frames = feed(framer, concat(Arrays.asList(frame, frame)), 1);
+
+        assertFrames(Arrays.asList(frame, frame), frames);
+    }
+
+    @Test
+    public void lengthPrefixedLittleEndianStripsTheHeader() {
+        Framer framer = new Framer.LengthPrefixed(0, 4, true, 0, true, 1024);
+        byte[] stream = {0x02, 0x00, 0x00, 0x00, 'h', 'i', 0x01, 0x00, 0x00, 0x00, '!'};
+
+        List<byte[]> frames = feed(framer, stream, 5);
+
+        assertFrames(Arrays.asList(new byte[] {'h', 'i'}, new byte[] {'!'}), frames);
+    }
+
+    @Test
+    public void lengthPrefixedAdjustsALengthThatCountsTheWholeFrame() {
+        // the length byte counts itself and the body
+        Framer framer = new Framer.LengthPrefixed(0, 1, false, -1, true, 1024);
+
+        List<byte[]> frames = feed(framer, new byte[] {0x03, 'o', 'k'}, 3);
+
+        assertFrames(Arrays.asList(new byte[] {'o', 'k'}), frames);
+    }
+
+    @Test
+    public void lengthPrefixedResyncsAfterALengthBeyondMaxLength() {
+        Framer framer = new Framer.LengthPrefixed(0, 1, false, 0, true, 4);
+        // 0x7F is no valid length, neither is 0x10, then a valid frame follows
+        byte[] stream = {0x7F, 0x10, 0x02, 'o', 'k'};
+
+        List<byte[]> frames = feed(framer, stream, stream.length);
+
+        assertFrames(Arrays.asList(new byte[] {'o', 'k'}), frames);
+    }
+
+    @Test
+    public void lengthPrefixedWaitsForTheBody() {
+        Framer framer = new Framer.LengthPrefixed(0, 2, false, 0, true, 1024);
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        buffer.write(new byte[] {0x00, 0x05, 1, 2});
+
+        assertEquals(-1, framer.next(buffer));
+        assertEquals(4, buffer.available());
+        buffer.write(new byte[] {3, 4, 5});
+        assertEquals(5, framer.next(buffer));
+    }
+
+    @Test
+    public void cobsRoundTrip() {
+        List<byte[]> frames = randomFrames(50, 1, 600, true);
+        // a run of exactly 254 non-zero bytes ends a COBS block
+        byte[] run = new byte[254];
+        Arrays.fill(run, (byte) 7);
+        frames.add(run);
+        frames.add(new byte[] {0});
+        frames.add(new byte[] {0, 0, 0});
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            byte[] encoded = cobs(frame);
+            stream.write(encoded, 0, encoded.length);
+        }
+        for (int chunkSize : new int[] {1, 7, 4096}) {
+            assertFrames(frames, feed(new Framer.Cobs(1024), stream.toByteArray(), chunkSize));
+        }
+    }
+
+    @Test
+    public void cobsDropsMalformedFrames() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        // a leading delimiter, an empty frame
+        stream.write(0);
+        // a code that points past the end of the frame
+        write(stream, new byte[] {0x05, 'a', 'b', 0});
+        write(stream, cobs(new byte[] {'o', 'k'}));
+
+        List<byte[]> frames = feed(new Framer.Cobs(1024), stream.toByteArray(), 3);
+
+        assertFrames(Arrays.asList(new byte[] {'o', 'k'}), frames);
+    }
+
+    @Test
+    public void cobsDropsFramesLongerThanMaxLength() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        write(stream, cobs(new byte[] {1, 2, 3, 4, 5}));
+        write(stream, cobs(new byte[] {1, 2, 3, 4}));
+
+        List<byte[]> frames = feed(new Framer.Cobs(4), stream.toByteArray(), 2);
+
+        assertFrames(Arrays.asList(new byte[] {1, 2, 3, 4}), frames);
+    }
+
+    @Test
+    public void cobsClearsGarbageWithoutADelimiter() {
+        Framer framer = new Framer.Cobs(4);
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        byte[] garbage = new byte[20];
+        Arrays.fill(garbage, (byte) 1);
+        buffer.write(garbage);
+
+        assertEquals(-1, framer.next(buffer));
+        assertEquals(0, buffer.available());
+        write(buffer, cobs(new byte[] {9}));
+        assertEquals(1, framer.next(buffer));
+    }
+
+    @Test
+    public void slipRoundTrip() {
+        List<byte[]> frames = randomFrames(50, 1, 300, true);
+        frames.add(new byte[] {(byte) 0xC0, (byte) 0xDB, (byte) 0xDC, (byte) 0xDD});
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            write(stream, slip(frame));
+        }
+        for (int chunkSize : new int[] {1, 5, 4096}) {
+            assertFrames(frames, feed(new Framer.Slip(1024), stream.toByteArray(), chunkSize));
+        }
+    }
+
+    @Test
+    public void slipDropsMalformedEscapes() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        // an escape that isn't followed by ESC_END or ESC_ESC
+        write(stream, new byte[] {'a', (byte) 0xDB, 'b', (byte) 0xC0});
+        // an escape right before the end
+        write(stream, new byte[] {'a', (byte) 0xDB, (byte) 0xC0});
+        write(stream, slip(new byte[] {'o', 'k'}));
+
+        List<byte[]> frames = feed(new Framer.Slip(1024), stream.toByteArray(), 4);
+
+        assertFrames(Arrays.asList(new byte[] {'o', 'k'}), frames);
+    }
+
+    @Test
+    public void fromOptionBuildsEveryType() throws Exception {
+        assertNull(Framer.fromOption(null));
+        assertTrue(Framer.fromOption(new JSONObject("{type: 'fixed', size: 4}")) instanceof Framer.FixedLength);
+        assertTrue(Framer.fromOption(new JSONObject("{type: 'lengthPrefixed'}")) instanceof Framer.LengthPrefixed);
+        assertTrue(Framer.fromOption(new JSONObject("{type: 'cobs'}")) instanceof Framer.Cobs);
+        assertTrue(Framer.fromOption(new JSONObject("{type: 'slip'}")) instanceof Framer.Slip);
+    }
+
+    @Test
+    public void fromOptionRejectsInvalidOptions() throws Exception {
+        String[] options = {
+                "{type: 'fixed'}",
+                "{type: 'fixed', size: -1}",
+                "{type: 'lengthPrefixed', lengthSize: 3}",
+                "{type: 'lengthPrefixed', lengthOffset: -1}",
+                "{type: 'lengthPrefixed', maxLength: 0}",
+                "{type: 'cobs', maxLength: 0}",
+                "{type: 'slip', maxLength: -5}",
+                "{type: 'lines'}"
+        };
+        for (String option : options) {
+            try {
+                Framer.fromOption(new JSONObject(option));
+                fail(option);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    @Test
+    public void minBufferSizeHoldsTheLongestFrame() {
+        assertEquals(32, new Framer.FixedLength(32).minBufferSize());
+        assertEquals(3 + 100, new Framer.LengthPrefixed(1, 2, false, 0, false, 100).minBufferSize());
+        assertEquals(101, new Framer.Cobs(100).minBufferSize());
+        assertEquals(101, new Framer.Slip(100).minBufferSize());
+    }
+
+    /**
+     * Write the stream in chunks and take the frames that are complete after each.
+     */
+    static List<byte[]> feed(Framer framer, byte[] stream, int chunkSize) {
+        ByteRingBuffer buffer = new ByteRingBuffer();
+        List<byte[]> frames = new ArrayList<>();
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            buffer.write(stream, offset, Math.min(chunkSize, stream.length - offset));
+            int length;
+            while ((length = framer.next(buffer)) >= 0) {
+                frames.add(Arrays.copyOf(framer.frame(), length));
+            }
+        }
+        return frames;
+    }
+
+    static void assertFrames(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("frame " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static List<byte[]> randomFrames(int count, int minLength, int maxLength, boolean zeros) {
+        Random random = new Random(count);
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[minLength + random.nextInt(maxLength - minLength + 1)];
+            random.nextBytes(frame);
+            if (zeros) {
+                frame[random.nextInt(frame.length)] = 0;
+            }
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static byte[] concat(List<byte[]> frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            write(out, frame);
+        }
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void write(ByteRingBuffer buffer, byte[] bytes) {
+        buffer.write(bytes);
+    }
+
+    /**
+     * COBS encoding followed by the 0 delimiter.
+     */
+    private static byte[] cobs(byte[] data) {
+        byte[] out = new byte[data.length + data.length / 254 + 2];
+        int codeIndex = 0;
+        int write = 1;
+        int code = 1;
+        for (byte b : data) {
+            if (b == 0) {
+                out[codeIndex] = (byte) code;
+                codeIndex = write++;
+                code = 1;
+            } else {
+                out[write++] = b;
+                if (++code == 0xFF) {
+                    out[codeIndex] = (byte) code;
+                    codeIndex = write++;
+                    code = 1;
+                }
+            }
+        }
+        out[codeIndex] = (byte) code;
+        out[write++] = 0;
+        return Arrays.copyOf(out, write);
+    }
+
+    /**
+     * SLIP encoding followed by END.
+     */
+    private static byte[] slip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte b : data) {
+            if (b == (byte) 0xC0) {
+                out.write(0xDB);
+                out.write(0xDC);
+            } else if (b == (byte) 0xDB) {
+                out.write(0xDB);
+                out.write(0xDD);
+            } else {
+                out.write(b);
+            }
+        }
+        out.write(0xC0);
+        return out.toByteArray();
+    }
+}
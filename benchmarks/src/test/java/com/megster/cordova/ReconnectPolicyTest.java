@@ -0,0 +1,77 @@
+package com.megster.cordova;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void trueMeansTheDefaults() {
+        ReconnectPolicy policy = ReconnectPolicy.fromOption(true);
+
+        assertEquals(ReconnectPolicy.DEFAULT_MAX_ATTEMPTS, policy.getMaxAttempts());
+    }
+
+    @Test
+    public void offOptions() throws Exception {
+        assertNull(ReconnectPolicy.fromOption(null));
+        assertNull(ReconnectPolicy.fromOption(false));
+        assertNull(ReconnectPolicy.fromOption(new JSONObject("{maxAttempts: 0}")));
+    }
+
+    @Test
+    public void rejectsInvalidOptions() throws Exception {
+        Object[] options = {
+                "yes",
+                new JSONObject("{maxAttempts: -1}"),
+                new JSONObject("{maxAttempts: 1.5}"),
+                new JSONObject("{maxAttempts: '3'}"),
+                new JSONObject("{initialDelay: -10}"),
+                new JSONObject("{initialDelay: 1000, maxDelay: 500}"),
+                new JSONObject("{multiplier: 0.5}"),
+                new JSONObject("{jitter: 2}")
+        };
+        for (Object option : options) {
+            try {
+                ReconnectPolicy.fromOption(option);
+                fail(option.toString());
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+
+    @Test
+    public void delayGrowsUpToMaxDelay() throws Exception {
+        ReconnectPolicy policy = ReconnectPolicy.fromOption(
+                new JSONObject("{initialDelay: 100, maxDelay: 500, multiplier: 2, jitter: 0}"));
+
+        assertEquals(100, policy.delayFor(1));
+        assertEquals(200, policy.delayFor(2));
+        assertEquals(400, policy.delayFor(3));
+        assertEquals(500, policy.delayFor(4));
+        assertEquals(500, policy.delayFor(20));
+    }
+
+    @Test
+    public void jitterStaysWithinItsFraction() {
+        ReconnectPolicy policy = new ReconnectPolicy(5, 1000, 1000, 2, 0.2);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delayFor(1);
+            assertTrue(String.valueOf(delay), delay >= 800 && delay <= 1200);
+        }
+    }
+
+    @Test
+    public void defaultMaxDelayIsNeverBelowTheInitialDelay() throws Exception {
+        ReconnectPolicy policy = ReconnectPolicy.fromOption(new JSONObject("{initialDelay: 60000, jitter: 0}"));
+
+        assertEquals(60000, policy.delayFor(3));
+    }
+}
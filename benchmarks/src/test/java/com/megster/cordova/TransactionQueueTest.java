@@ -0,0 +1,223 @@
+package com.megster.cordova;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionQueueTest {
+
+    private static final TransactionQueue.Callback IGNORE = new TransactionQueue.Callback() {
+        @Override
+        public void onResponse(byte[] response) {
+        }
+
+        @Override
+        public void onError(String message) {
+        }
+    };
+
+    private TransactionQueue queue;
+    private ByteRingBuffer buffer;
+
+    @Before
+    public void setUp() {
+        queue = new TransactionQueue();
+        buffer = new ByteRingBuffer();
+    }
+
+    @Test
+    public void matchesAResponseUpToItsTerminator() {
+        TransactionQueue.Transaction t = lineTransaction("AT");
+        assertTrue(queue.add(t));
+        t.requestWritten(buffer);
+
+        receive("O");
+        assertNull(queue.poll(buffer));
+        receive("K\r\nnext");
+
+        assertSame(t, queue.poll(buffer));
+        assertArrayEquals(bytes("OK\r\n"), t.getResponse());
+        assertEquals(4, buffer.available());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void matchesAResponseOfAFixedLength() {
+        TransactionQueue.Transaction t = new TransactionQueue.Transaction(bytes("?"), null, 3, IGNORE);
+        queue.add(t);
+        t.requestWritten(buffer);
+
+        receive("ab");
+        assertNull(queue.poll(buffer));
+        receive("cd");
+
+        assertSame(t, queue.poll(buffer));
+        assertArrayEquals(bytes("abc"), t.getResponse());
+    }
+
+    @Test
+    public void skipsBytesThatArrivedBeforeTheRequest() {
+        receive("stale\r\nhalf a li");
+        TransactionQueue.Transaction t = lineTransaction("AT");
+        queue.add(t);
+        t.requestWritten(buffer);
+
+        receive("OK\r\n");
+
+        assertSame(t, queue.poll(buffer));
+        assertArrayEquals(bytes("OK\r\n"), t.getResponse());
+        assertEquals(0, buffer.available());
+    }
+
+    @Test
+    public void pipelinesUpToDepthAndAnswersInOrder() {
+        queue.setDepth(2);
+        TransactionQueue.Transaction t1 = lineTransaction("1");
+        TransactionQueue.Transaction t2 = lineTransaction("2");
+        TransactionQueue.Transaction t3 = lineTransaction("3");
+        assertTrue(queue.add(t1));
+        t1.requestWritten(buffer);
+        assertTrue(queue.add(t2));
+        t2.requestWritten(buffer);
+        assertFalse(queue.add(t3));
+        assertNull(queue.nextToWrite());
+
+        receive("one\r\ntwo\r\n");
+
+        assertSame(t1, queue.poll(buffer));
+        assertSame(t3, queue.nextToWrite());
+        t3.requestWritten(buffer);
+        assertSame(t2, queue.poll(buffer));
+        assertNull(queue.poll(buffer));
+        receive("three\r\n");
+        assertSame(t3, queue.poll(buffer));
+
+        assertArrayEquals(bytes("one\r\n"), t1.getResponse());
+        assertArrayEquals(bytes("two\r\n"), t2.getResponse());
+        assertArrayEquals(bytes("three\r\n"), t3.getResponse());
+    }
+
+    @Test
+    public void aLateResponseIsSkippedNotGivenToTheNextTransaction() {
+        TransactionQueue.Transaction t1 = lineTransaction("1");
+        queue.add(t1);
+        t1.requestWritten(buffer);
+        assertTrue(queue.timeout(t1));
+        assertFalse(queue.timeout(t1));
+
+        // t1 keeps its place, t2 waits for its late response
+        TransactionQueue.Transaction t2 = lineTransaction("2");
+        assertFalse(queue.add(t2));
+        receive("late one\r\n");
+        assertNull(queue.poll(buffer));
+
+        assertSame(t2, queue.nextToWrite());
+        t2.requestWritten(buffer);
+        receive("two\r\n");
+        assertSame(t2, queue.poll(buffer));
+        assertArrayEquals(bytes("two\r\n"), t2.getResponse());
+        assertNull(t1.getResponse());
+    }
+
+    @Test
+    public void aPipelinedTimeoutDoesNotShiftTheResponses() {
+        queue.setDepth(2);
+        TransactionQueue.Transaction t1 = lineTransaction("1");
+        TransactionQueue.Transaction t2 = lineTransaction("2");
+        queue.add(t1);
+        t1.requestWritten(buffer);
+        queue.add(t2);
+        t2.requestWritten(buffer);
+
+        queue.timeout(t1);
+        receive("one\r\ntwo\r\n");
+
+        assertSame(t2, queue.poll(buffer));
+        assertArrayEquals(bytes("two\r\n"), t2.getResponse());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void anUnansweredTimeoutExpires() {
+        TransactionQueue.Transaction t1 = lineTransaction("1");
+        queue.add(t1);
+        t1.requestWritten(buffer);
+        queue.timeout(t1);
+
+        assertTrue(queue.expire(t1));
+
+        TransactionQueue.Transaction t2 = lineTransaction("2");
+        assertTrue(queue.add(t2));
+        t2.requestWritten(buffer);
+        receive("two\r\n");
+        assertSame(t2, queue.poll(buffer));
+    }
+
+    @Test
+    public void expireIsANoOpOnceTheLateResponseCame() {
+        TransactionQueue.Transaction t = lineTransaction("1");
+        queue.add(t);
+        t.requestWritten(buffer);
+        queue.timeout(t);
+        receive("late\r\n");
+        queue.poll(buffer);
+
+        assertFalse(queue.expire(t));
+    }
+
+    @Test
+    public void aWaitingTransactionThatTimesOutIsRemoved() {
+        TransactionQueue.Transaction t1 = lineTransaction("1");
+        TransactionQueue.Transaction t2 = lineTransaction("2");
+        queue.add(t1);
+        queue.add(t2);
+
+        assertTrue(queue.timeout(t2));
+        assertEquals(1, queue.size());
+        assertFalse(queue.expire(t2));
+    }
+
+    @Test
+    public void clearLeavesOutTimedOutTransactions() {
+        queue.setDepth(2);
+        TransactionQueue.Transaction t1 = lineTransaction("1");
+        TransactionQueue.Transaction t2 = lineTransaction("2");
+        TransactionQueue.Transaction t3 = lineTransaction("3");
+        queue.add(t1);
+        queue.add(t2);
+        queue.add(t3);
+        queue.timeout(t1);
+
+        List<TransactionQueue.Transaction> cleared = queue.clear();
+
+        assertEquals(Arrays.asList(t2, t3), cleared);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aResponseNeedsATerminatorOrALength() {
+        new TransactionQueue.Transaction(bytes("?"), null, 0, IGNORE);
+    }
+
+    private static TransactionQueue.Transaction lineTransaction(String request) {
+        return new TransactionQueue.Transaction(bytes(request), bytes("\r\n"), 0, IGNORE);
+    }
+
+    private void receive(String data) {
+        buffer.write(bytes(data));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
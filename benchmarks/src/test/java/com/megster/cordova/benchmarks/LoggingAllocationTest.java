@@ -0,0 +1,49 @@
+package com.megster.cordova.benchmarks;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs LoggingBenchmark with the log level off and the gc profiler. The
+ * data path must not allocate, what's left of gc.alloc.rate.norm is JMH's
+ * own noise, a fraction of a byte per operation.
+ */
+public class LoggingAllocationTest {
+
+    private static final double MAX_BYTES_PER_OP = 1.0;
+
+    @Test
+    public void readPathDoesNotAllocateWithLoggingOff() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LoggingBenchmark.class.getName())
+                .param("level", "off")
+                .addProfiler(GCProfiler.class)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(1))
+                .forks(1)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        assertEquals(TrafficProfile.values().length, results.size());
+        for (RunResult result : results) {
+            String profile = result.getParams().getParam("profile");
+            Result allocated = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            assertTrue(profile + ": " + allocated.getScore() + " B/op",
+                    allocated.getScore() < MAX_BYTES_PER_OP);
+        }
+    }
+}
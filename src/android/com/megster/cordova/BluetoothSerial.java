@@ -8,7 +8,11 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.provider.Settings;
 import android.util.Log;
 
@@ -21,11 +25,17 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * PhoneGap Plugin for Serial Communication over Bluetooth
@@ -36,9 +46,13 @@ public class BluetoothSerial extends CordovaPlugin {
     private static final String LIST = "list";
     private static final String CONNECT = "connect";
     private static final String CONNECT_INSECURE = "connectInsecure";
+    private static final String CONNECT_ALL = "connectAll";
+    private static final String LISTEN = "listen";
+    private static final String STOP_LISTENING = "stopListening";
     private static final String DISCONNECT = "disconnect";
     private static final String WRITE = "write";
     private static final String WRITE_STRING = "writeString";
+    private static final String TRANSACT = "transact";
     private static final String AVAILABLE = "available";
     private static final String READ = "read";
     private static final String READ_UNTIL = "readUntil";
@@ -56,6 +70,12 @@ public class BluetoothSerial extends CordovaPlugin {
     private static final String CLEAR_DEVICE_DISCOVERED_LISTENER = "clearDeviceDiscoveredListener";
     private static final String SET_NAME = "setName";
     private static final String SET_DISCOVERABLE = "setDiscoverable";
+    private static final String GET_STATISTICS = "getStatistics";
+    private static final String SUBSCRIBE_STATISTICS = "subscribeStatistics";
+    private static final String UNSUBSCRIBE_STATISTICS = "unsubscribeStatistics";
+    private static final String SUBSCRIBE_CONNECTION_EVENTS = "subscribeConnectionEvents";
+    private static final String UNSUBSCRIBE_CONNECTION_EVENTS = "unsubscribeConnectionEvents";
+    private static final String SET_LOG_LEVEL = "setLogLevel";
 
     // callbacks
     private CallbackContext enableBluetoothCallback;
@@ -64,9 +84,85 @@ public class BluetoothSerial extends CordovaPlugin {
     private BluetoothAdapter bluetoothAdapter;
     private Map<String, BluetoothSerialConnection> bluetoothConnections = new ConcurrentHashMap<>();
 
-    // Debugging
+    // the connections as connectAll and the server see them
+    private final ConnectAllTask.Connections connections = new ConnectAllTask.Connections() {
+        @Override
+        public BluetoothSerialConnection obtain(String address) {
+            return obtainConnection(address);
+        }
+
+        @Override
+        public void remove(BluetoothSerialConnection connection) {
+            synchronized (bluetoothConnections) {
+                if (bluetoothConnections.get(connection.getAddress()) == connection) {
+                    bluetoothConnections.remove(connection.getAddress());
+                }
+            }
+        }
+    };
+
+    // the socket strategy that worked for each device, kept in the app's shared preferences
+    private static final String CONNECT_STRATEGIES_PREFERENCES = "BluetoothSerial";
+    private static final String CONNECT_STRATEGIES_KEY = "connectStrategies";
+    private ConnectStrategyCache connectStrategies;
+
+    // transact waits this long for a response if no timeout is given
+    private static final long DEFAULT_TRANSACTION_TIMEOUT = 5000;
+
+    // preferences
+    private static final String DISPATCH_PREFERENCE = "BluetoothSerialDispatch";
+    private static final String DISPATCH_MAIN = "main";
+    private static final String THREADS_PREFERENCE = "BluetoothSerialThreads";
+    private static final String THREADS_SHARED = "shared";
+    private static final String IO_THREADS_PREFERENCE = "BluetoothSerialIoThreads";
+    private static final String CONNECT_THREADS_PREFERENCE = "BluetoothSerialConnectThreads";
+
+    // data and state events from all connections are handled on this looper
+    private HandlerThread dispatchThread;
+    private Looper dispatchLooper;
+
+    // with the shared thread preference all connections connect, read and write on these threads
+    private SerialIoPool ioPool;
+    private BroadcastReceiver aclReceiver;
+
+    // what list reports, created by the first list
+    private DeviceInfoCache deviceInfoCache;
+
+    // accepts incoming connections while listening
+    private BluetoothSerialServer server;
+
+    // gets the state transitions of all connections, see subscribeConnectionEvents
+    private volatile CallbackContext connectionEventsCallback;
+    private final ConnectionState.Listener connectionEvents = new ConnectionState.Listener() {
+        @Override
+        public void onTransition(ConnectionState.Event event) {
+            CallbackContext callback = connectionEventsCallback;
+            if (callback == null) {
+                return;
+            }
+            try {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, event.toJSON());
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
+            } catch (JSONException e) {
+                if (LogLevel.error()) Log.e(TAG, "Can't send connection event", e);
+            }
+        }
+    };
+
+    // Action name to handler, and the executor for actions that don't run on the calling thread
+    private interface Action {
+        void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException;
+    }
+    private final Map<String, Action> actions = new HashMap<>();
+    private final Map<String, Executor> actionExecutors = new HashMap<>();
+    private ExecutorService dataExecutor;
+    private ExecutorService connectionExecutor;
+    private ExecutorService controlExecutor;
+
+    // Debugging, see LogLevel
     private static final String TAG = "BluetoothSerial";
-    private static final boolean D = true;
+    private static final String LOG_LEVEL_PREFERENCE = "BluetoothSerialLogLevel";
 
 
     private static final int REQUEST_ENABLE_BLUETOOTH = 1;
@@ -75,229 +171,717 @@ public class BluetoothSerial extends CordovaPlugin {
     private static final String ACCESS_COARSE_LOCATION = Manifest.permission.ACCESS_COARSE_LOCATION;
     private static final int CHECK_PERMISSIONS_REQ_CODE = 2;
     private CallbackContext permissionCallback;
+    private DiscoveryFilter permissionDiscoveryFilter;
+
+    // the running discoverUnpaired, if any
+    private DiscoverySession discoverySession;
 
     @Override
-    public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    protected void pluginInitialize() {
+        String logLevel = preferences.getString(LOG_LEVEL_PREFERENCE, LogLevel.name(LogLevel.DEBUG));
+        int level = LogLevel.parse(logLevel);
+        if (level >= 0) {
+            LogLevel.set(level);
+        } else {
+            Log.w(TAG, "Unknown log level " + logLevel);
+        }
 
-        LOG.d(TAG, "action = " + action);
+        // "main" keeps the old behaviour of handling reads on the UI thread, useful to compare latency
+        String dispatch = preferences.getString(DISPATCH_PREFERENCE, "background");
+        if (DISPATCH_MAIN.equalsIgnoreCase(dispatch)) {
+            dispatchLooper = Looper.getMainLooper();
+        } else {
+            dispatchThread = new HandlerThread("BluetoothSerialDispatch", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            dispatchThread.start();
+            dispatchLooper = dispatchThread.getLooper();
+        }
+        if (LogLevel.debug()) LOG.d(TAG, "dispatching on " + dispatch + " looper");
 
-        if (bluetoothAdapter == null) {
-            bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (THREADS_SHARED.equalsIgnoreCase(preferences.getString(THREADS_PREFERENCE, "connection"))) {
+            startIoPool();
         }
 
-        boolean validAction = true;
+        final SharedPreferences sharedPreferences = cordova.getActivity()
+                .getSharedPreferences(CONNECT_STRATEGIES_PREFERENCES, Context.MODE_PRIVATE);
+        connectStrategies = new ConnectStrategyCache(new ConnectStrategyCache.Store() {
+            @Override
+            public String load() {
+                return sharedPreferences.getString(CONNECT_STRATEGIES_KEY, null);
+            }
 
-        if (action.equals(LIST)) {
+            @Override
+            public void save(String json) {
+                // apply() writes to disk in the background
+                sharedPreferences.edit().putString(CONNECT_STRATEGIES_KEY, json).apply();
+            }
+        });
 
-            listBondedDevices(callbackContext);
+        dataExecutor = Executors.newSingleThreadExecutor(namedThreads("BluetoothSerialData"));
+        connectionExecutor = Executors.newSingleThreadExecutor(namedThreads("BluetoothSerialConnection"));
+        controlExecutor = Executors.newSingleThreadExecutor(namedThreads("BluetoothSerialControl"));
+        registerActions();
+    }
 
-        } else if (action.equals(CONNECT)) {
+    /**
+     * Shared readers poll available(), which doesn't report a closed link,
+     * so ACL disconnects are passed on to the connection.
+     */
+    private void startIoPool() {
+        int ioThreads = Math.max(1, preferences.getInteger(IO_THREADS_PREFERENCE, SerialIoPool.DEFAULT_IO_THREADS));
+        int connectThreads = Math.max(1,
+                preferences.getInteger(CONNECT_THREADS_PREFERENCE, SerialIoPool.DEFAULT_CONNECT_THREADS));
+        ioPool = new SerialIoPool(ioThreads, connectThreads, SerialIoPool.DEFAULT_POLL_MILLIS);
+        if (LogLevel.debug()) LOG.d(TAG, "shared threads: " + ioThreads + " io, " + connectThreads + " connect");
+
+        aclReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                BluetoothSerialConnection conn = device != null ? bluetoothConnections.get(device.getAddress()) : null;
+                if (conn != null) {
+                    conn.linkLost();
+                }
+            }
+        };
+        cordova.getActivity().registerReceiver(aclReceiver, new IntentFilter(BluetoothDevice.ACTION_ACL_DISCONNECTED));
+    }
 
-            boolean secure = true;
-            connect(args, secure, callbackContext);
+    private static ThreadFactory namedThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name);
+            }
+        };
+    }
 
-        } else if (action.equals(CONNECT_INSECURE)) {
+    @Override
+    public boolean execute(String action, final CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
 
-            // see Android docs about Insecure RFCOMM http://goo.gl/1mFjZY
-            boolean secure = false;
-            connect(args, secure, callbackContext);
+        if (LogLevel.debug()) LOG.d(TAG, "action = " + action);
 
-        } else if (action.equals(DISCONNECT)) {
+        final Action handler = actions.get(action);
+        if (handler == null) {
+            return false;
+        }
 
-            String id = args.getString(0);
-            if (id == null || id.isEmpty()) {
-                for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                    entry.getValue().stop();
-                }
-                bluetoothConnections.clear();
-            } else {
-                BluetoothSerialConnection conn = bluetoothConnections.get(id);
-                if (conn != null) {
-                    conn.stop();
-                    bluetoothConnections.remove(id);
+        if (bluetoothAdapter == null) {
+            bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        }
+
+        Executor executor = actionExecutors.get(action);
+        if (executor == null) {
+            handler.execute(args, callbackContext);
+        } else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.execute(args, callbackContext);
+                    } catch (JSONException e) {
+                        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, e.getMessage()));
+                    } catch (RuntimeException e) {
+                        if (LogLevel.error()) Log.e(TAG, "action failed", e);
+                        callbackContext.error(e.toString());
+                    }
                 }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Build the dispatch table. Data actions run in call order on one
+     * thread so a write isn't held up by the WebCore thread or a slow
+     * action. Connect, listen and disconnect can block on the Bluetooth
+     * service (SDP records, closing sockets), so they run in call order on
+     * a thread of their own. Listing and discovery talk to the Bluetooth
+     * service and get a third thread. Quick actions and those that start
+     * activities run right away.
+     */
+    private void registerActions() {
+        register(LIST, controlExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                listBondedDevices(callbackContext);
             }
-            callbackContext.success();
+        });
+        register(CONNECT, connectionExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                boolean secure = true;
+                connect(args, secure, callbackContext);
+            }
+        });
+        register(CONNECT_INSECURE, connectionExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                // see Android docs about Insecure RFCOMM http://goo.gl/1mFjZY
+                boolean secure = false;
+                connect(args, secure, callbackContext);
+            }
+        });
+        register(CONNECT_ALL, connectionExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                connectAll(args, callbackContext);
+            }
+        });
+        register(LISTEN, connectionExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                listen(args, callbackContext);
+            }
+        });
+        register(STOP_LISTENING, connectionExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                stopListening(args, callbackContext);
+            }
+        });
+        register(DISCONNECT, connectionExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                disconnect(args, callbackContext);
+            }
+        });
+        register(WRITE, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                write(args, callbackContext);
+            }
+        });
+        register(WRITE_STRING, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                writeString(args, callbackContext);
+            }
+        });
+        register(TRANSACT, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                transact(args, callbackContext);
+            }
+        });
+        register(AVAILABLE, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                available(args, callbackContext);
+            }
+        });
+        register(READ, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                read(args, callbackContext);
+            }
+        });
+        register(READ_UNTIL, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                readUntil(args, callbackContext);
+            }
+        });
+        register(SUBSCRIBE, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                subscribe(args, callbackContext);
+            }
+        });
+        register(UNSUBSCRIBE, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                unsubscribe(args, callbackContext);
+            }
+        });
+        register(SUBSCRIBE_RAW, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                subscribeRaw(args, callbackContext);
+            }
+        });
+        register(UNSUBSCRIBE_RAW, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                unsubscribeRaw(args, callbackContext);
+            }
+        });
+        register(IS_ENABLED, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                isEnabled(args, callbackContext);
+            }
+        });
+        register(IS_CONNECTED, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                isConnected(args, callbackContext);
+            }
+        });
+        register(CLEAR, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                clear(args, callbackContext);
+            }
+        });
+        register(SETTINGS, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                showBluetoothSettings(args, callbackContext);
+            }
+        });
+        register(ENABLE, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                enable(args, callbackContext);
+            }
+        });
+        register(DISCOVER_UNPAIRED, controlExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                discoverUnpaired(args, callbackContext);
+            }
+        });
+        register(SET_DEVICE_DISCOVERED_LISTENER, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                setDeviceDiscoveredListener(args, callbackContext);
+            }
+        });
+        register(CLEAR_DEVICE_DISCOVERED_LISTENER, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                clearDeviceDiscoveredListener(args, callbackContext);
+            }
+        });
+        register(SET_NAME, controlExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                setName(args, callbackContext);
+            }
+        });
+        register(SET_DISCOVERABLE, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                setDiscoverable(args, callbackContext);
+            }
+        });
+        register(SET_LOG_LEVEL, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                setLogLevel(args, callbackContext);
+            }
+        });
+        register(GET_STATISTICS, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                getStatistics(args, callbackContext);
+            }
+        });
+        register(SUBSCRIBE_STATISTICS, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                subscribeStatistics(args, callbackContext);
+            }
+        });
+        register(UNSUBSCRIBE_STATISTICS, dataExecutor, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                unsubscribeStatistics(args, callbackContext);
+            }
+        });
+        register(SUBSCRIBE_CONNECTION_EVENTS, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                subscribeConnectionEvents(args, callbackContext);
+            }
+        });
+        register(UNSUBSCRIBE_CONNECTION_EVENTS, null, new Action() {
+            @Override
+            public void execute(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+                unsubscribeConnectionEvents(args, callbackContext);
+            }
+        });
+    }
 
-        } else if (action.equals(WRITE)) {
+    private void register(String action, Executor executor, Action handler) {
+        actions.put(action, handler);
+        if (executor != null) {
+            actionExecutors.put(action, executor);
+        }
+    }
 
-            byte[] data = args.getArrayBuffer(0);
-            try {
-                String macAddress = args.getString(1);
-                if (macAddress == null || macAddress.isEmpty()) {
-                    for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                        entry.getValue().write(data);
-                    }
-                } else {
-                    BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
-                    if (conn != null) {
-                        conn.write(data);
-                    } else {
-                        throw new Exception("device not connected");
-                    }
-                }
-                callbackContext.success();
-            } catch (Exception e) {
-                callbackContext.error(e.getMessage());
+    private void disconnect(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String id = args.getString(0);
+        if (id == null || id.isEmpty()) {
+            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
+                entry.getValue().stop();
+            }
+            bluetoothConnections.clear();
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(id);
+            if (conn != null) {
+                conn.stop();
+                bluetoothConnections.remove(id);
             }
+        }
+        callbackContext.success();
+    }
 
-        } else if (action.equals(WRITE_STRING)) {
-            String msg = args.getString(0);
-            try {
-                byte[] data = msg.getBytes("gbk");
+    private void write(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        byte[] data = args.getArrayBuffer(0);
+        String macAddress = args.getString(1);
+        if (macAddress == null || macAddress.isEmpty()) {
+            writeToAll(data, null, callbackContext);
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn != null) {
+                conn.write(data, new WriteCallback(callbackContext, null));
+            } else {
+                callbackContext.error("device not connected");
+            }
+        }
+    }
 
-                String macAddress = args.getString(1);
-                if (macAddress == null || macAddress.isEmpty()) {
-                    for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                        entry.getValue().write(data);
-                    }
-                } else {
-                    BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
-                    if (conn != null) {
-                        conn.write(data);
-                    } else {
-                        throw new Exception("device not connected");
-                    }
-                }
-                callbackContext.success(data);
-            } catch (Exception e) {
-                callbackContext.error(e.getMessage());
+    private void writeString(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String msg = args.getString(0);
+        String macAddress = args.getString(1);
+        if (macAddress == null || macAddress.isEmpty()) {
+            writeToAll(null, msg, callbackContext);
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn != null) {
+                // each connection encodes with its own charset
+                byte[] data = conn.encode(msg);
+                conn.write(data, new WriteCallback(callbackContext, data));
+            } else {
+                callbackContext.error("device not connected");
+            }
+        }
+    }
+
+    /**
+     * Arguments are the request, whether it is a string, the terminator of the
+     * response as a string or byte array or its length, the timeout and the
+     * address, which can be left out with one connection.
+     */
+    private void transact(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String macAddress = addressAt(args, 4);
+        BluetoothSerialConnection conn;
+        if (macAddress.isEmpty() && bluetoothConnections.size() == 1) {
+            conn = bluetoothConnections.values().iterator().next();
+        } else {
+            conn = bluetoothConnections.get(macAddress);
+        }
+        if (conn == null) {
+            callbackContext.error(macAddress.isEmpty() && !bluetoothConnections.isEmpty()
+                    ? "address required with several connections" : "device not connected");
+            return;
+        }
+
+        byte[] request = args.getBoolean(1) ? conn.encode(args.getString(0)) : args.getArrayBuffer(0);
+
+        byte[] terminator = null;
+        int length = 0;
+        Object response = args.get(2);
+        if (response instanceof String) {
+            terminator = conn.encode((String) response);
+        } else if (response instanceof JSONArray) {
+            JSONArray values = (JSONArray) response;
+            terminator = new byte[values.length()];
+            for (int i = 0; i < terminator.length; i++) {
+                terminator[i] = (byte) values.getInt(i);
             }
+        } else {
+            length = args.getInt(2);
+        }
+
+        long timeout = args.optLong(3);
+        if (timeout <= 0) {
+            timeout = DEFAULT_TRANSACTION_TIMEOUT;
+        }
 
-        } else if (action.equals(AVAILABLE)) {
+        try {
+            conn.transact(request, terminator, length, timeout, new TransactionCallback(callbackContext));
+        } catch (IllegalArgumentException e) {
+            callbackContext.error(e.getMessage());
+        }
+    }
 
+    private void available(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String macAddress = addressAt(args, 0);
+        if (macAddress.isEmpty()) {
             int[] results = new int[bluetoothConnections.size()];
             int i = 0;
             for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
                 results[i++] = entry.getValue().available();
             }
             callbackContext.success(new JSONArray(results));
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn != null) {
+                callbackContext.success(conn.available());
+            } else {
+                callbackContext.error("device not connected");
+            }
+        }
+    }
 
-        } else if (action.equals(READ)) {
-
+    private void read(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String macAddress = addressAt(args, 0);
+        if (macAddress.isEmpty()) {
             List<String> results = new ArrayList<>();
             for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
                 results.add(entry.getValue().read());
             }
             callbackContext.success(new JSONArray(results));
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn != null) {
+                callbackContext.success(conn.read());
+            } else {
+                callbackContext.error("device not connected");
+            }
+        }
+    }
 
-        } else if (action.equals(READ_UNTIL)) {
-
-            String interesting = args.getString(0);
+    private void readUntil(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String interesting = args.getString(0);
+        String macAddress = addressAt(args, 1);
+        if (macAddress.isEmpty()) {
             List<String> results = new ArrayList<>();
             for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
                 results.add(entry.getValue().readUntil(interesting));
             }
             callbackContext.success(new JSONArray(results));
-
-        } else if (action.equals(SUBSCRIBE)) {
-
-            String delimiter = args.getString(0);
-            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                entry.getValue().subscribe(delimiter, callbackContext);
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn != null) {
+                callbackContext.success(conn.readUntil(interesting));
+            } else {
+                callbackContext.error("device not connected");
             }
+        }
+    }
 
-            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
+    private void subscribe(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String delimiter = args.getString(0);
+        JSONObject options = optionsAt(args, 1);
+        List<BluetoothSerialConnection> connections = connectionsFor(options.optString("address"));
+        if (connections == null) {
+            callbackContext.error("device not connected");
+            return;
+        }
 
-        } else if (action.equals(UNSUBSCRIBE)) {
+        for (BluetoothSerialConnection conn : connections) {
+            conn.subscribe(delimiter, options, callbackContext);
+        }
 
-            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                entry.getValue().unsubscribe();
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void unsubscribe(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        List<BluetoothSerialConnection> connections = connectionsFor(addressAt(args, 0));
+        if (connections != null) {
+            for (BluetoothSerialConnection conn : connections) {
+                conn.unsubscribe();
             }
-            callbackContext.success();
+        }
+        callbackContext.success();
+    }
 
-        } else if (action.equals(SUBSCRIBE_RAW)) {
+    private void subscribeRaw(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = optionsAt(args, 0);
+        List<BluetoothSerialConnection> connections = connectionsFor(options.optString("address"));
+        if (connections == null) {
+            callbackContext.error("device not connected");
+            return;
+        }
 
-            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                entry.getValue().subscribeRaw(callbackContext);
+        // every connection gets its own framer, this only checks the option before subscribing any
+        try {
+            Framer framer = Framer.fromOption(options.optJSONObject("framing"));
+            for (BluetoothSerialConnection conn : connections) {
+                conn.checkFraming(framer);
             }
+        } catch (IllegalArgumentException e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
 
-            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-            result.setKeepCallback(true);
-            callbackContext.sendPluginResult(result);
+        for (BluetoothSerialConnection conn : connections) {
+            conn.subscribeRaw(options, callbackContext);
+        }
 
-        } else if (action.equals(UNSUBSCRIBE_RAW)) {
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
 
-            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                entry.getValue().unsubscribeRaw();
+    private void unsubscribeRaw(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        List<BluetoothSerialConnection> connections = connectionsFor(addressAt(args, 0));
+        if (connections != null) {
+            for (BluetoothSerialConnection conn : connections) {
+                conn.unsubscribeRaw();
             }
+        }
+        callbackContext.success();
+    }
+
+    private void isEnabled(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        if (bluetoothAdapter.isEnabled()) {
             callbackContext.success();
+        } else {
+            callbackContext.error("Bluetooth is disabled.");
+        }
+    }
 
-        } else if (action.equals(IS_ENABLED)) {
+    private void isConnected(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        List<String> results = new ArrayList<>();
+        for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
+            if (entry.getValue().isConnected()) {
+                results.add(entry.getKey());
+            }
+        }
+        callbackContext.success(new JSONArray(results));
+    }
 
-            if (bluetoothAdapter.isEnabled()) {
-                callbackContext.success();
-            } else {
-                callbackContext.error("Bluetooth is disabled.");
+    private void clear(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        List<BluetoothSerialConnection> connections = connectionsFor(addressAt(args, 0));
+        if (connections != null) {
+            for (BluetoothSerialConnection conn : connections) {
+                conn.clear();
             }
+        }
+        callbackContext.success();
+    }
 
-        } else if (action.equals(IS_CONNECTED)) {
+    private void showBluetoothSettings(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        Intent intent = new Intent(Settings.ACTION_BLUETOOTH_SETTINGS);
+        cordova.getActivity().startActivity(intent);
+        callbackContext.success();
+    }
 
-            List<String> results = new ArrayList<>();
-            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                if (entry.getValue().isConnected()) {
-                    results.add(entry.getKey());
-                }
-            }
-            callbackContext.success(new JSONArray(results));
+    private void enable(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        enableBluetoothCallback = callbackContext;
+        Intent intent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
+        cordova.startActivityForResult(this, intent, REQUEST_ENABLE_BLUETOOTH);
+    }
 
-        } else if (action.equals(CLEAR)) {
+    private void discoverUnpaired(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        DiscoveryFilter filter;
+        try {
+            filter = DiscoveryFilter.fromOptions(args.optJSONObject(0));
+        } catch (IllegalArgumentException e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
 
-            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
-                entry.getValue().clear();
-            }
-            callbackContext.success();
+        if (cordova.hasPermission(ACCESS_COARSE_LOCATION)) {
+            discoverUnpairedDevices(filter, callbackContext);
+        } else {
+            permissionCallback = callbackContext;
+            permissionDiscoveryFilter = filter;
+            cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE, ACCESS_COARSE_LOCATION);
+        }
+    }
 
-        } else if (action.equals(SETTINGS)) {
+    private void setDeviceDiscoveredListener(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        this.deviceDiscoveredCallback = callbackContext;
+    }
 
-            Intent intent = new Intent(Settings.ACTION_BLUETOOTH_SETTINGS);
-            cordova.getActivity().startActivity(intent);
-            callbackContext.success();
+    private void clearDeviceDiscoveredListener(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        this.deviceDiscoveredCallback = null;
+    }
 
-        } else if (action.equals(ENABLE)) {
+    private void setName(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String newName = args.getString(0);
+        bluetoothAdapter.setName(newName);
+        callbackContext.success();
+    }
 
-            enableBluetoothCallback = callbackContext;
-            Intent intent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-            cordova.startActivityForResult(this, intent, REQUEST_ENABLE_BLUETOOTH);
+    private void setDiscoverable(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        int discoverableDuration = args.getInt(0);
+        Intent discoverIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
+        discoverIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, discoverableDuration);
+        cordova.getActivity().startActivity(discoverIntent);
+    }
 
-        } else if (action.equals(DISCOVER_UNPAIRED)) {
+    private void setLogLevel(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String name = args.getString(0);
+        int level = LogLevel.parse(name);
+        if (level >= 0) {
+            LogLevel.set(level);
+            callbackContext.success();
+        } else {
+            callbackContext.error("Unknown log level " + name);
+        }
+    }
 
-            if (cordova.hasPermission(ACCESS_COARSE_LOCATION)) {
-                discoverUnpairedDevices(callbackContext);
+    private void getStatistics(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        String macAddress = addressAt(args, 0);
+        if (macAddress.isEmpty()) {
+            JSONArray results = new JSONArray();
+            for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
+                results.put(entry.getValue().getStatistics());
+            }
+            callbackContext.success(results);
+        } else {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn != null) {
+                callbackContext.success(conn.getStatistics());
             } else {
-                permissionCallback = callbackContext;
-                cordova.requestPermission(this, CHECK_PERMISSIONS_REQ_CODE, ACCESS_COARSE_LOCATION);
+                callbackContext.error("device not connected");
             }
+        }
+    }
 
-        } else if (action.equals(SET_DEVICE_DISCOVERED_LISTENER)) {
-
-            this.deviceDiscoveredCallback = callbackContext;
-
-        } else if (action.equals(CLEAR_DEVICE_DISCOVERED_LISTENER)) {
-
-            this.deviceDiscoveredCallback = null;
-
-        } else if (action.equals(SET_NAME)) {
+    private void subscribeStatistics(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        long interval = args.getLong(0);
+        List<BluetoothSerialConnection> connections = connectionsFor(addressAt(args, 1));
+        if (connections == null) {
+            callbackContext.error("device not connected");
+            return;
+        }
+        if (interval <= 0) {
+            callbackContext.error("Invalid interval " + interval);
+            return;
+        }
 
-            String newName = args.getString(0);
-            bluetoothAdapter.setName(newName);
-            callbackContext.success();
+        for (BluetoothSerialConnection conn : connections) {
+            conn.subscribeStatistics(interval, callbackContext);
+        }
 
-        } else if (action.equals(SET_DISCOVERABLE)) {
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
 
-            int discoverableDuration = args.getInt(0);
-            Intent discoverIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_DISCOVERABLE);
-            discoverIntent.putExtra(BluetoothAdapter.EXTRA_DISCOVERABLE_DURATION, discoverableDuration);
-            cordova.getActivity().startActivity(discoverIntent);
+    private void unsubscribeStatistics(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        List<BluetoothSerialConnection> connections = connectionsFor(addressAt(args, 0));
+        if (connections != null) {
+            for (BluetoothSerialConnection conn : connections) {
+                conn.unsubscribeStatistics();
+            }
+        }
+        callbackContext.success();
+    }
 
-        } else {
-            validAction = false;
+    private void subscribeConnectionEvents(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        connectionEventsCallback = callbackContext;
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
 
+    private void unsubscribeConnectionEvents(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        CallbackContext callback = connectionEventsCallback;
+        connectionEventsCallback = null;
+        if (callback != null) {
+            callback.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
         }
-
-        return validAction;
+        callbackContext.success();
     }
 
     @Override
@@ -306,12 +890,12 @@ public class BluetoothSerial extends CordovaPlugin {
         if (requestCode == REQUEST_ENABLE_BLUETOOTH) {
 
             if (resultCode == Activity.RESULT_OK) {
-                Log.d(TAG, "User enabled Bluetooth");
+                if (LogLevel.debug()) Log.d(TAG, "User enabled Bluetooth");
                 if (enableBluetoothCallback != null) {
                     enableBluetoothCallback.success();
                 }
             } else {
-                Log.d(TAG, "User did *NOT* enable Bluetooth");
+                if (LogLevel.debug()) Log.d(TAG, "User did *NOT* enable Bluetooth");
                 if (enableBluetoothCallback != null) {
                     enableBluetoothCallback.error("User did not enable Bluetooth");
                 }
@@ -328,77 +912,318 @@ public class BluetoothSerial extends CordovaPlugin {
         for (Map.Entry<String, BluetoothSerialConnection> entry : bluetoothConnections.entrySet()) {
             entry.getValue().stop();
         }
+
+        if (dispatchThread != null) {
+            dispatchThread.quitSafely();
+            dispatchThread = null;
+        }
+
+        synchronized (this) {
+            if (discoverySession != null) {
+                discoverySession.stop();
+                discoverySession = null;
+            }
+            if (deviceInfoCache != null) {
+                deviceInfoCache.close();
+                deviceInfoCache = null;
+            }
+            if (server != null) {
+                server.stop();
+                server = null;
+            }
+        }
+
+        dataExecutor.shutdown();
+        connectionExecutor.shutdown();
+        controlExecutor.shutdown();
+
+        if (ioPool != null) {
+            cordova.getActivity().unregisterReceiver(aclReceiver);
+            ioPool.shutdown();
+            ioPool = null;
+        }
     }
 
     private void listBondedDevices(CallbackContext callbackContext) throws JSONException {
-        JSONArray deviceList = new JSONArray();
-        Set<BluetoothDevice> bondedDevices = bluetoothAdapter.getBondedDevices();
+        DeviceInfoCache cache;
+        synchronized (this) {
+            if (deviceInfoCache == null) {
+                deviceInfoCache = new DeviceInfoCache(cordova.getActivity(), bluetoothAdapter);
+            }
+            cache = deviceInfoCache;
+        }
+        callbackContext.success(cache.bondedDevices());
+    }
 
-        for (BluetoothDevice device : bondedDevices) {
-            deviceList.put(deviceToJSON(device));
+    private synchronized void discoverUnpairedDevices(DiscoveryFilter filter, CallbackContext callbackContext) {
+        boolean takeOver = false;
+        if (discoverySession != null) {
+            // the new discovery takes over a running inquiry, the old one reports what it found so far.
+            // Cancelling here would deliver a discovery finished broadcast to the new one.
+            takeOver = discoverySession.isRunning();
+            discoverySession.finish();
         }
-        callbackContext.success(deviceList);
+        discoverySession = new DiscoverySession(cordova.getActivity(), bluetoothAdapter, filter,
+                callbackContext, deviceDiscoveredCallback);
+        discoverySession.start(takeOver);
     }
 
-    private void discoverUnpairedDevices(final CallbackContext callbackContext) throws JSONException {
+    /**
+     * @return the connection to macAddress, all connections if macAddress is empty,
+     * or null if there is no connection to macAddress
+     */
+    private List<BluetoothSerialConnection> connectionsFor(String macAddress) {
+        if (macAddress == null || macAddress.isEmpty()) {
+            return new ArrayList<>(bluetoothConnections.values());
+        }
+        BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+        if (conn == null) {
+            return null;
+        }
+        List<BluetoothSerialConnection> connections = new ArrayList<>(1);
+        connections.add(conn);
+        return connections;
+    }
 
-        final CallbackContext ddc = deviceDiscoveredCallback;
+    /**
+     * @return the MAC address at index, or an empty string if it is missing
+     */
+    private String addressAt(CordovaArgs args, int index) {
+        return args.isNull(index) ? "" : args.optString(index);
+    }
 
-        final BroadcastReceiver discoverReceiver = new BroadcastReceiver() {
+    /**
+     * @return the options object at index, or an empty one if it is missing
+     */
+    private JSONObject optionsAt(CordovaArgs args, int index) {
+        JSONObject options = args.optJSONObject(index);
+        return options != null ? options : new JSONObject();
+    }
 
-            private JSONArray unpairedDevices = new JSONArray();
+    /**
+     * Queue data, or a message that is encoded per connection, on every connection.
+     * Each connection's writer sends it concurrently. The callback gets an object
+     * keyed by address once every write finished, e.g.
+     * { "00:11:22:33:44:55": { "success": true, "latency": 12 },
+     *   "66:77:88:99:AA:BB": { "success": false, "error": "Write queue full (64 writes pending)" } }
+     */
+    private void writeToAll(byte[] data, String message, CallbackContext callbackContext) {
+        List<Map.Entry<String, BluetoothSerialConnection>> connections = new ArrayList<>(bluetoothConnections.entrySet());
+        BroadcastWrite broadcast = new BroadcastWrite(connections.size(), callbackContext);
+
+        for (Map.Entry<String, BluetoothSerialConnection> entry : connections) {
+            BluetoothSerialConnection conn = entry.getValue();
+            conn.write(message != null ? conn.encode(message) : data, broadcast.callbackFor(entry.getKey()));
+        }
+    }
 
-            public void onReceive(Context context, Intent intent) {
-                String action = intent.getAction();
-                if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-                    BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    try {
-                    	JSONObject o = deviceToJSON(device);
-                        unpairedDevices.put(o);
-                        if (ddc != null) {
-                            PluginResult res = new PluginResult(PluginResult.Status.OK, o);
-                            res.setKeepCallback(true);
-                            ddc.sendPluginResult(res);
-                        }
-                    } catch (JSONException e) {
-                        // This shouldn't happen, log and ignore
-                        Log.e(TAG, "Problem converting device to JSON", e);
-                    }
-                } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-                    callbackContext.success(unpairedDevices);
-                    cordova.getActivity().unregisterReceiver(this);
+    /**
+     * Collects the result of a write per device and reports them together.
+     */
+    private static class BroadcastWrite {
+        private final CallbackContext callbackContext;
+        private final JSONObject results = new JSONObject();
+        private final AtomicInteger remaining;
+        private final long start = System.nanoTime();
+
+        BroadcastWrite(int count, CallbackContext callbackContext) {
+            this.callbackContext = callbackContext;
+            this.remaining = new AtomicInteger(count);
+            if (count == 0) {
+                callbackContext.success(results);
+            }
+        }
+
+        BluetoothSerialWriter.Callback callbackFor(final String address) {
+            return new BluetoothSerialWriter.Callback() {
+                @Override
+                public void onWritten(int queued) {
+                    long latency = (System.nanoTime() - start) / 1000000;
+                    complete(address, true, null, latency, queued);
+                }
+
+                @Override
+                public void onError(String error) {
+                    complete(address, false, error, -1, -1);
                 }
+            };
+        }
+
+        private void complete(String address, boolean success, String error, long latency, int queued) {
+            try {
+                JSONObject result = new JSONObject();
+                result.put("success", success);
+                if (success) {
+                    result.put("latency", latency);
+                    result.put("queued", queued);
+                } else {
+                    result.put("error", error);
+                }
+                synchronized (results) {
+                    results.put(address, result);
+                }
+            } catch (JSONException e) {
+                if (LogLevel.error()) Log.e(TAG, "Problem converting write result to JSON", e);
             }
-        };
 
-        Activity activity = cordova.getActivity();
-        activity.registerReceiver(discoverReceiver, new IntentFilter(BluetoothDevice.ACTION_FOUND));
-        activity.registerReceiver(discoverReceiver, new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
-        bluetoothAdapter.startDiscovery();
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (results) {
+                    callbackContext.success(results);
+                }
+            }
+        }
     }
 
-    private JSONObject deviceToJSON(BluetoothDevice device) throws JSONException {
-        JSONObject json = new JSONObject();
-        json.put("name", device.getName());
-        json.put("address", device.getAddress());
-        json.put("id", device.getAddress());
-        if (device.getBluetoothClass() != null) {
-            json.put("class", device.getBluetoothClass().getDeviceClass());
+    /**
+     * Completes a write's callback once its bytes were written. Success gets the
+     * number of writes still queued, or for writeString the bytes that were written.
+     */
+    private static class WriteCallback implements BluetoothSerialWriter.Callback {
+        private final CallbackContext callbackContext;
+        private final byte[] written;
+
+        WriteCallback(CallbackContext callbackContext, byte[] written) {
+            this.callbackContext = callbackContext;
+            this.written = written;
+        }
+
+        @Override
+        public void onWritten(int queued) {
+            if (written != null) {
+                callbackContext.success(written);
+            } else {
+                callbackContext.success(queued);
+            }
+        }
+
+        @Override
+        public void onError(String message) {
+            callbackContext.error(message);
         }
-        return json;
+    }
+
+    private static class TransactionCallback implements TransactionQueue.Callback {
+        private final CallbackContext callbackContext;
+
+        TransactionCallback(CallbackContext callbackContext) {
+            this.callbackContext = callbackContext;
+        }
+
+        @Override
+        public void onResponse(byte[] response) {
+            callbackContext.success(response);
+        }
+
+        @Override
+        public void onError(String message) {
+            callbackContext.error(message);
+        }
+    }
+
+    /**
+     * @return the connection for the address, a new one if there is none
+     */
+    private BluetoothSerialConnection obtainConnection(String macAddress) {
+        // connectAll and the server obtain connections from their own threads
+        synchronized (bluetoothConnections) {
+            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
+            if (conn == null) {
+                conn = new BluetoothSerialConnection(macAddress, dispatchLooper, ioPool, connectStrategies);
+                conn.setStateListener(connectionEvents);
+                bluetoothConnections.put(macAddress, conn);
+            }
+            return conn;
+        }
+    }
+
+    /**
+     * Argument is the options, see BluetoothSerialServer. A running server is stopped first.
+     */
+    private void listen(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        JSONObject options = optionsAt(args, 0);
+
+        BluetoothSerialServer newServer;
+        try {
+            newServer = new BluetoothSerialServer(bluetoothAdapter, connections, options, callbackContext);
+        } catch (IllegalArgumentException e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (server != null) {
+                server.stop();
+                server = null;
+            }
+
+            try {
+                newServer.start();
+            } catch (IOException e) {
+                if (LogLevel.error()) Log.e(TAG, "listen failed", e);
+                callbackContext.error("Unable to listen: " + e.getMessage());
+                return;
+            }
+            server = newServer;
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void stopListening(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        synchronized (this) {
+            if (server != null) {
+                server.stop();
+                server = null;
+            }
+        }
+        callbackContext.success();
+    }
+
+    /**
+     * Arguments are the addresses and the options, see ConnectAllTask.
+     */
+    private void connectAll(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+        JSONArray addresses = args.getJSONArray(0);
+        JSONObject options = optionsAt(args, 1);
+
+        List<String> list = new ArrayList<>(addresses.length());
+        for (int i = 0; i < addresses.length(); i++) {
+            String address = addresses.getString(i);
+            if (!list.contains(address)) {
+                list.add(address);
+            }
+        }
+
+        ConnectAllTask task;
+        try {
+            task = new ConnectAllTask(dispatchLooper, bluetoothAdapter, connections, connectStrategies, list, options,
+                    callbackContext);
+        } catch (IllegalArgumentException e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        task.start();
     }
 
     private void connect(CordovaArgs args, boolean secure, CallbackContext callbackContext) throws JSONException {
         String macAddress = args.getString(0);
+        JSONObject options = optionsAt(args, 1);
         BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
 
         if (device != null) {
-            BluetoothSerialConnection conn = bluetoothConnections.get(macAddress);
-            if (conn == null) {
-                conn = new BluetoothSerialConnection();
-                bluetoothConnections.put(macAddress, conn);
+            BluetoothSerialConnection conn = obtainConnection(macAddress);
+            try {
+                conn.connect(device, secure, options, callbackContext);
+            } catch (IllegalArgumentException e) {
+                callbackContext.error(e.getMessage());
+                return;
             }
-            conn.connect(device, secure, callbackContext);
 
             PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
             result.setKeepCallback(true);
@@ -415,7 +1240,7 @@ public class BluetoothSerial extends CordovaPlugin {
 
         for(int result:grantResults) {
             if(result == PackageManager.PERMISSION_DENIED) {
-                LOG.d(TAG, "User *rejected* location permission");
+                if (LogLevel.debug()) LOG.d(TAG, "User *rejected* location permission");
                 this.permissionCallback.sendPluginResult(new PluginResult(
                         PluginResult.Status.ERROR,
                         "Location permission is required to discover unpaired devices.")
@@ -426,8 +1251,8 @@ public class BluetoothSerial extends CordovaPlugin {
 
         switch(requestCode) {
             case CHECK_PERMISSIONS_REQ_CODE:
-                LOG.d(TAG, "User granted location permission");
-                discoverUnpairedDevices(permissionCallback);
+                if (LogLevel.debug()) LOG.d(TAG, "User granted location permission");
+                discoverUnpairedDevices(permissionDiscoveryFilter, permissionCallback);
                 break;
         }
     }
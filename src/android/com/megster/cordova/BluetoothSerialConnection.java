@@ -2,199 +2,880 @@ package com.megster.cordova;
 
 import android.bluetooth.BluetoothDevice;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
-import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
 public class BluetoothSerialConnection {
-
-    // Debugging
+    // Debugging, see LogLevel
     private static final String TAG = "BluetoothSerial";
-    private static final boolean D = true;
 
-    // Key names received from the BluetoothChatService Handler
-    public static final String DEVICE_NAME = "device_name";
-    public static final String TOAST = "toast";
+    /**
+     * Connection events, called on the dispatch thread.
+     */
+    public interface ConnectListener {
+        void onConnected();
 
-    // Message types sent from the BluetoothSerialService Handler
-    public static final int MESSAGE_STATE_CHANGE = 1;
-    public static final int MESSAGE_READ = 2;
-    public static final int MESSAGE_WRITE = 3;
-    public static final int MESSAGE_DEVICE_NAME = 4;
-    public static final int MESSAGE_TOAST = 5;
-    public static final int MESSAGE_READ_RAW = 6;
+        void onReconnecting(int attempt, int delay);
 
-    // callbacks
-    private CallbackContext connectCallback;
-    private CallbackContext dataAvailableCallback;
-    private CallbackContext rawDataAvailableCallback;
+        /**
+         * The connect failed or the connection was lost for good. No more
+         * events follow.
+         */
+        void onConnectionLost(String error);
+    }
 
+    // callbacks, set from the plugin thread and used on the dispatch thread
+    private volatile ConnectListener connectListener;
+    private volatile CallbackContext dataAvailableCallback;
+    private volatile CallbackContext rawDataAvailableCallback;
+    private volatile CallbackContext statisticsCallback;
+    private volatile long statisticsIntervalMillis;
+
+    // subscribe options
+    private static final String OPTION_TAGGED = "tagged";
+    private static final String OPTION_BATCH_SIZE = "batchSize";
+    private static final String OPTION_BATCH_INTERVAL = "batchInterval";
+    private static final String OPTION_FRAMING = "framing";
+
+    // subscribers that want the address of the device with every frame
+    private volatile boolean dataTagged;
+    private volatile boolean rawDataTagged;
+
+    // subscribers that get frames in batches, null to send every frame on its own
+    private volatile FrameBatch dataBatch;
+    private volatile FrameBatch rawDataBatch;
+
+    // raw subscribers that get complete frames, null to get every chunk as it is read.
+    // Only changed on the dispatch thread, which frames the chunks.
+    private volatile Framer rawFramer;
+    private final ByteRingBuffer rawFrameBuffer = new ByteRingBuffer();
+
+    private final String address;
     private BluetoothSerialService bluetoothSerialService;
-
-    private StringBuffer buffer = new StringBuffer();
-    private String delimiter;
+    private final ConnectStrategyCache connectStrategies;
+    private final ConnectionState connectionState;
+
+    // connect options
+    private static final String OPTION_BUFFER_SIZE = "bufferSize";
+    private static final String OPTION_OVERFLOW = "overflow";
+    private static final String OPTION_CHARSET = "charset";
+    private static final String OPTION_WRITE_QUEUE_SIZE = "writeQueueSize";
+    private static final String OPTION_WRITE_BATCH_SIZE = "writeBatchSize";
+    private static final String OPTION_WRITE_LINGER = "writeLinger";
+    private static final String OPTION_READ_BUFFER_SIZE = "readBufferSize";
+    private static final String OPTION_READ_MIN_BYTES = "readMinBytes";
+    private static final String OPTION_READ_LINGER = "readLinger";
+    private static final String READ_BUFFER_ADAPTIVE = "adaptive";
+    private static final String OPTION_RECONNECT = "reconnect";
+    private static final String OPTION_PIPELINE_DEPTH = "pipelineDepth";
+    private static final String OPTION_UUID = "uuid";
+    private static final String OPTION_CHANNEL = "channel";
+
+    // Without a charset option strings are read in the platform charset and written as GBK
+    private static final Charset DEFAULT_WRITE_CHARSET = Charset.forName("GBK");
+
+    private final ByteRingBuffer buffer = new ByteRingBuffer();
+    private final ConnectionStatistics statistics = new ConnectionStatistics();
+    private final ByteArrayPool rawPool = new ByteArrayPool();
+    private final SerialReader reader = new SerialReader(buffer, Charset.defaultCharset());
+    private volatile CharsetCodec writeCodec = new CharsetCodec(DEFAULT_WRITE_CHARSET);
+    private volatile DelimiterScanner delimiterScanner;
+
+    // transactions are only touched on the dispatch thread, the flag tells updateConsumers about them
+    private final TransactionQueue transactions = new TransactionQueue();
+    private volatile boolean transactionsPending;
 
     // The Handler that gets information back from the BluetoothSerialService
+    private final Handler mHandler;
+
     // Original code used handler for the because it was talking to the UI.
-    // Consider replacing with normal callbacks
-    private final Handler mHandler = new Handler() {
+    // It now runs on the looper the plugin hands in, normally a background
+    // dispatch thread so reads don't compete with the WebView.
+    private class DispatchHandler extends Handler {
+
+        DispatchHandler(Looper looper) {
+            super(looper);
+        }
 
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case MESSAGE_READ:
-                    buffer.append((String)msg.obj);
-
-                    if (dataAvailableCallback != null) {
-                        sendDataToSubscriber();
+                case BluetoothSerialService.MESSAGE_READ:
+                    // the service already put the data into the buffer, responses are taken out first
+                    if (transactionsPending) {
+                        serviceTransactions();
+                    }
+                    if (dataAvailableCallback != null && sendDataToSubscriber()) {
+                        statistics.recordDelivered();
                     }
 
                     break;
-                case MESSAGE_READ_RAW:
+                case BluetoothSerialService.MESSAGE_READ_RAW:
+                    // a pooled array, arg1 bytes of it are data
+                    byte[] bytes = (byte[]) msg.obj;
                     if (rawDataAvailableCallback != null) {
-                        byte[] bytes = (byte[]) msg.obj;
-                        sendRawDataToSubscriber(bytes);
+                        Framer framer = rawFramer;
+                        boolean delivered;
+                        if (framer != null) {
+                            delivered = sendRawFramesToSubscriber(framer, bytes, msg.arg1);
+                        } else {
+                            delivered = sendRawFrameToSubscriber(bytes, msg.arg1);
+                        }
+                        if (delivered) {
+                            statistics.recordDelivered();
+                        }
                     }
+                    // the frames were copied or encoded, so the array can be reused
+                    rawPool.release(bytes);
                     break;
-                case MESSAGE_STATE_CHANGE:
+                case BluetoothSerialService.MESSAGE_STATE_CHANGE:
 
-                    if(D) Log.i(TAG, "MESSAGE_STATE_CHANGE: " + msg.arg1);
+                    if (LogLevel.info()) Log.i(TAG, "MESSAGE_STATE_CHANGE: " + msg.arg1);
                     switch (msg.arg1) {
                         case BluetoothSerialService.STATE_CONNECTED:
-                            Log.i(TAG, "BluetoothSerialService.STATE_CONNECTED");
+                            if (LogLevel.info()) Log.i(TAG, "BluetoothSerialService.STATE_CONNECTED");
                             notifyConnectionSuccess();
                             break;
                         case BluetoothSerialService.STATE_CONNECTING:
-                            Log.i(TAG, "BluetoothSerialService.STATE_CONNECTING");
+                            if (LogLevel.info()) Log.i(TAG, "BluetoothSerialService.STATE_CONNECTING");
                             break;
                         case BluetoothSerialService.STATE_LISTEN:
-                            Log.i(TAG, "BluetoothSerialService.STATE_LISTEN");
+                            if (LogLevel.info()) Log.i(TAG, "BluetoothSerialService.STATE_LISTEN");
                             break;
                         case BluetoothSerialService.STATE_NONE:
-                            Log.i(TAG, "BluetoothSerialService.STATE_NONE");
+                            if (LogLevel.info()) Log.i(TAG, "BluetoothSerialService.STATE_NONE");
                             break;
                     }
                     break;
-                case MESSAGE_WRITE:
-                    //  byte[] writeBuf = (byte[]) msg.obj;
-                    //  String writeMessage = new String(writeBuf);
-                    //  Log.i(TAG, "Wrote: " + writeMessage);
+                case BluetoothSerialService.MESSAGE_DEVICE_NAME:
+                    if (LogLevel.info()) Log.i(TAG, msg.getData().getString(BluetoothSerialService.DEVICE_NAME));
                     break;
-                case MESSAGE_DEVICE_NAME:
-                    Log.i(TAG, msg.getData().getString(DEVICE_NAME));
-                    break;
-                case MESSAGE_TOAST:
-                    String message = msg.getData().getString(TOAST);
+                case BluetoothSerialService.MESSAGE_TOAST:
+                    String message = msg.getData().getString(BluetoothSerialService.TOAST);
                     notifyConnectionLost(message);
                     break;
+                case BluetoothSerialService.MESSAGE_RECONNECTING:
+                    notifyReconnecting(msg.arg1, msg.arg2);
+                    break;
             }
         }
-    };
+    }
 
-    BluetoothSerialConnection() {
-        bluetoothSerialService = new BluetoothSerialService(mHandler);
+    /**
+     * @param address  MAC address of the device
+     * @param looper  The looper data and state events are dispatched on
+     * @param ioPool  Shared threads to connect, read and write on, null for threads of this connection
+     * @param connectStrategies  The socket strategies that worked before, shared by all connections
+     */
+    BluetoothSerialConnection(String address, Looper looper, SerialIoPool ioPool,
+                              ConnectStrategyCache connectStrategies) {
+        this.address = address;
+        this.connectStrategies = connectStrategies;
+        this.connectionState = new ConnectionState(address);
+        mHandler = new DispatchHandler(looper);
+        bluetoothSerialService = new BluetoothSerialService(mHandler, buffer, rawPool, statistics, ioPool);
     }
 
     private void notifyConnectionLost(String error) {
-        if (connectCallback != null) {
-            connectCallback.error(error);
-            connectCallback = null;
+        connectionState.transition(ConnectionState.State.LOST, error);
+        failTransactions(error);
+        ConnectListener listener = connectListener;
+        if (listener != null) {
+            connectListener = null;
+            listener.onConnectionLost(error);
         }
     }
 
     private void notifyConnectionSuccess() {
-        if (connectCallback != null) {
+        connectionState.transition(ConnectionState.State.CONNECTED, null);
+        ConnectListener listener = connectListener;
+        if (listener != null) {
+            listener.onConnected();
+        }
+    }
+
+    private void notifyReconnecting(int attempt, int delay) {
+        connectionState.transition(ConnectionState.State.RECONNECTING,
+                "Reconnect attempt " + attempt + " in " + delay + " ms");
+        ConnectListener listener = connectListener;
+        if (listener != null) {
+            listener.onReconnecting(attempt, delay);
+        }
+    }
+
+    /**
+     * Passes connection events to the callback of connect, which stays
+     * open until the connection is lost.
+     */
+    private static class CallbackConnectListener implements ConnectListener {
+        private final CallbackContext callbackContext;
+
+        CallbackConnectListener(CallbackContext callbackContext) {
+            this.callbackContext = callbackContext;
+        }
+
+        @Override
+        public void onConnected() {
             PluginResult result = new PluginResult(PluginResult.Status.OK);
             result.setKeepCallback(true);
-            connectCallback.sendPluginResult(result);
+            callbackContext.sendPluginResult(result);
+        }
+
+        @Override
+        public void onReconnecting(int attempt, int delay) {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("state", "reconnecting");
+                json.put("attempt", attempt);
+                json.put("delay", delay);
+            } catch (JSONException e) {
+                // can't happen with these keys and values
+            }
+            PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+
+        @Override
+        public void onConnectionLost(String error) {
+            callbackContext.error(error);
         }
     }
 
+    /**
+     * Only buffer and copy incoming data for the consumers that exist. While
+     * there is a raw subscriber and no delimiter subscriber the data is not
+     * kept in the buffer for read().
+     */
+    private synchronized void updateConsumers() {
+        int consumers = 0;
+        if (dataAvailableCallback != null || rawDataAvailableCallback == null || transactionsPending) {
+            consumers |= BluetoothSerialService.CONSUMER_BUFFER;
+        }
+        if (dataAvailableCallback != null || transactionsPending) {
+            consumers |= BluetoothSerialService.CONSUMER_SUBSCRIBER;
+        }
+        if (rawDataAvailableCallback != null) {
+            consumers |= BluetoothSerialService.CONSUMER_RAW;
+        }
+        bluetoothSerialService.setConsumers(consumers);
+    }
+
     private void sendRawDataToSubscriber(byte[] data) {
         if (data != null && data.length > 0) {
             PluginResult result = new PluginResult(PluginResult.Status.OK, data);
-            result.setKeepCallback(true);
-            rawDataAvailableCallback.sendPluginResult(result);
+            sendToSubscriber(rawDataAvailableCallback, result, rawDataTagged);
         }
     }
 
-    private void sendDataToSubscriber() {
-        String data = readUntil(delimiter);
-        if (data != null && data.length() > 0) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, data);
-            result.setKeepCallback(true);
-            dataAvailableCallback.sendPluginResult(result);
+    /**
+     * Send the first length bytes of frame on their own or add them to the batch.
+     * @return false if there was nothing to send
+     */
+    private boolean sendRawFrameToSubscriber(byte[] frame, int length) {
+        if (length == 0) {
+            return false;
+        }
+        FrameBatch batch = rawDataBatch;
+        if (batch != null) {
+            boolean first = batch.isEmpty();
+            addedToBatch(batch, first, batch.add(frame, 0, length), flushRawDataBatch);
+        } else if (length == frame.length) {
+            sendRawDataToSubscriber(frame);
+        } else {
+            sendRawDataToSubscriber(Arrays.copyOf(frame, length));
+        }
+        statistics.recordFrameDelivered();
+        return true;
+    }
 
-            sendDataToSubscriber();
+    /**
+     * Add the chunk to the bytes left over from earlier chunks and send the
+     * frames that are complete now. The rest waits for the next chunk.
+     * @return true if at least one frame was sent
+     */
+    private boolean sendRawFramesToSubscriber(Framer framer, byte[] chunk, int chunkLength) {
+        rawFrameBuffer.write(chunk, 0, chunkLength);
+        boolean delivered = false;
+        int length;
+        while ((length = framer.next(rawFrameBuffer)) >= 0) {
+            delivered |= sendRawFrameToSubscriber(framer.frame(), length);
         }
+        return delivered;
+    }
+
+    private final Runnable flushDataBatch = new Runnable() {
+        @Override
+        public void run() {
+            FrameBatch batch = dataBatch;
+            CallbackContext callback = dataAvailableCallback;
+            if (batch != null && callback != null) {
+                List<String> frames = batch.takeStrings();
+                if (!frames.isEmpty()) {
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, new JSONArray(frames));
+                    sendToSubscriber(callback, result, dataTagged);
+                }
+            }
+        }
+    };
+
+    private final Runnable flushRawDataBatch = new Runnable() {
+        @Override
+        public void run() {
+            FrameBatch batch = rawDataBatch;
+            CallbackContext callback = rawDataAvailableCallback;
+            if (batch != null && callback != null) {
+                byte[] frames = batch.takeBytes();
+                if (frames != null) {
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, frames);
+                    sendToSubscriber(callback, result, rawDataTagged);
+                }
+            }
+        }
+    };
+
+    /**
+     * Send the batch right away once it is full, otherwise make sure it is
+     * sent when the interval of its first frame is over.
+     */
+    private void addedToBatch(FrameBatch batch, boolean first, boolean full, Runnable flush) {
+        if (full) {
+            mHandler.removeCallbacks(flush);
+            flush.run();
+        } else if (first) {
+            mHandler.postDelayed(flush, batch.getIntervalMillis());
+        }
+    }
+
+    /**
+     * @return a batch if the options ask for batching, otherwise null
+     */
+    private static FrameBatch batchFor(JSONObject options) {
+        int batchSize = options.optInt(OPTION_BATCH_SIZE, 0);
+        int batchInterval = options.optInt(OPTION_BATCH_INTERVAL, 0);
+        if (batchSize <= 1 && batchInterval <= 0) {
+            return null;
+        }
+        return new FrameBatch(batchSize > 0 ? batchSize : Integer.MAX_VALUE,
+                batchInterval > 0 ? batchInterval : FrameBatch.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Send data to a subscriber. Tagged results are sent as a multipart
+     * message so the callback is called with (data, address).
+     */
+    private void sendToSubscriber(CallbackContext callback, PluginResult data, boolean tagged) {
+        PluginResult result = data;
+        if (tagged) {
+            List<PluginResult> parts = new ArrayList<>(2);
+            parts.add(data);
+            parts.add(new PluginResult(PluginResult.Status.OK, address));
+            result = new PluginResult(PluginResult.Status.OK, parts);
+        }
+        result.setKeepCallback(true);
+        callback.sendPluginResult(result);
+    }
+
+    /**
+     * @return true if at least one frame was sent
+     */
+    private boolean sendDataToSubscriber() {
+        DelimiterScanner scanner = delimiterScanner;
+        if (scanner == null) {
+            return false;
+        }
+
+        boolean delivered = false;
+        String data;
+        while ((data = reader.nextFrame(scanner)) != null) {
+            delivered = true;
+            statistics.recordFrameDelivered();
+            FrameBatch batch = dataBatch;
+            if (batch != null) {
+                boolean first = batch.isEmpty();
+                addedToBatch(batch, first, batch.add(data), flushDataBatch);
+            } else {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, data);
+                sendToSubscriber(dataAvailableCallback, result, dataTagged);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * @param listener  Gets the state transitions of this connection, null for none
+     */
+    public void setStateListener(ConnectionState.Listener listener) {
+        connectionState.setListener(listener);
+    }
+
+    public ConnectionState.State getState() {
+        return connectionState.get();
     }
 
     public boolean isConnected() {
         return bluetoothSerialService.getState() == BluetoothSerialService.STATE_CONNECTED;
     }
 
-    public void connect(BluetoothDevice device, boolean secure, CallbackContext callbackContext) {
-        connectCallback = callbackContext;
+    /**
+     * @throws IllegalArgumentException if the options are invalid
+     */
+    public void connect(BluetoothDevice device, boolean secure, JSONObject options, CallbackContext callbackContext) {
+        connect(device, secure, options, new CallbackConnectListener(callbackContext));
+    }
+
+    /**
+     * @param listener  Gets the events of this connect and of the connection it makes
+     * @throws IllegalArgumentException if the options are invalid
+     */
+    public void connect(BluetoothDevice device, boolean secure, JSONObject options, ConnectListener listener) {
+        // uuid is the service to look up, channel the RFCOMM channel to try without a lookup
+        UUID uuid = null;
+        int channel = BluetoothSocketTransport.DEFAULT_CHANNEL;
+        if (options != null) {
+            String uuidOption = options.optString(OPTION_UUID, "");
+            if (!uuidOption.isEmpty()) {
+                uuid = UUID.fromString(uuidOption);
+            }
+            channel = options.optInt(OPTION_CHANNEL, channel);
+            if (channel < 1 || channel > 30) {
+                throw new IllegalArgumentException("Invalid channel " + channel);
+            }
+        }
+
+        configure(options);
+        connectListener = listener;
         clear();
 
         if (!isConnected()) {
-            bluetoothSerialService.connect(device, secure);
+            connectionState.transition(ConnectionState.State.CONNECTING, secure ? "connect" : "connectInsecure");
+            bluetoothSerialService.connect(new BluetoothSocketTransport(device, secure, uuid, channel, connectStrategies));
         }
     }
 
-    public void write(byte[] data) throws IOException {
-        bluetoothSerialService.write(data);
+    /**
+     * Use a socket a BluetoothSerialServer accepted from this device.
+     * @param options  Connect options, reconnect doesn't apply
+     * @throws IllegalArgumentException if the options are invalid
+     */
+    public void accept(SerialTransport transport, JSONObject options, ConnectListener listener) {
+        configure(options);
+        connectListener = listener;
+        clear();
+
+        connectionState.transition(ConnectionState.State.CONNECTING, "accepted");
+        bluetoothSerialService.accepted(transport);
     }
 
-    public void subscribe(String newDelimiter, CallbackContext callbackContext) {
-        delimiter = newDelimiter;
+    /**
+     * Queue data to be written, the callback is called once it was written.
+     */
+    public void write(byte[] data, BluetoothSerialWriter.Callback callback) {
+        bluetoothSerialService.write(data, callback);
+    }
+
+    /**
+     * Write a request and call back with its response, which is taken from
+     * the read buffer before subscribers and read() see it. Responses are
+     * matched in the order of the requests, up to the pipelineDepth connect
+     * option are written before the first response is in.
+     *
+     * Only data that arrives after the request is written counts as its
+     * response. A response that arrives after its transaction timed out is
+     * skipped, a transaction that still has no response a second timeout
+     * later is given up on.
+     *
+     * @param terminator  The response ends with these bytes, or null if it is length bytes long
+     * @throws IllegalArgumentException if there is neither a terminator nor a length
+     */
+    public void transact(byte[] request, byte[] terminator, int length, final long timeoutMillis,
+                         TransactionQueue.Callback callback) {
+        final TransactionQueue.Transaction transaction =
+                new TransactionQueue.Transaction(request, terminator, length, callback);
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isConnected()) {
+                    transaction.getCallback().onError("device not connected");
+                    return;
+                }
+
+                boolean write = transactions.add(transaction);
+                if (!transactionsPending) {
+                    transactionsPending = true;
+                    updateConsumers();
+                }
+                mHandler.postAtTime(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeoutTransaction(transaction, timeoutMillis);
+                    }
+                }, transaction, SystemClock.uptimeMillis() + timeoutMillis);
+
+                if (write) {
+                    writeTransaction(transaction);
+                }
+            }
+        });
+    }
+
+    private void writeTransaction(final TransactionQueue.Transaction transaction) {
+        transaction.requestWritten(buffer);
+        bluetoothSerialService.write(transaction.getRequest(), new BluetoothSerialWriter.Callback() {
+            @Override
+            public void onWritten(int queued) {
+            }
+
+            @Override
+            public void onError(final String message) {
+                // called on the writer thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        failTransaction(transaction, message);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Answer the transactions whose response is in the buffer and write the
+     * ones that were waiting for them.
+     */
+    private void serviceTransactions() {
+        TransactionQueue.Transaction transaction;
+        while ((transaction = transactions.poll(buffer)) != null) {
+            mHandler.removeCallbacksAndMessages(transaction);
+            transaction.getCallback().onResponse(transaction.getResponse());
+        }
+        while ((transaction = transactions.nextToWrite()) != null) {
+            writeTransaction(transaction);
+        }
+        if (transactions.isEmpty() && transactionsPending) {
+            transactionsPending = false;
+            updateConsumers();
+        }
+    }
+
+    private void timeoutTransaction(final TransactionQueue.Transaction transaction, long timeoutMillis) {
+        if (transactions.timeout(transaction)) {
+            transaction.getCallback().onError("Transaction timed out");
+            mHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    if (transactions.expire(transaction)) {
+                        serviceTransactions();
+                    }
+                }
+            }, transaction, SystemClock.uptimeMillis() + timeoutMillis);
+            serviceTransactions();
+        }
+    }
+
+    private void failTransaction(TransactionQueue.Transaction transaction, String message) {
+        if (transactions.remove(transaction)) {
+            mHandler.removeCallbacksAndMessages(transaction);
+            transaction.getCallback().onError(message);
+            // the next transaction's response may already be in the buffer
+            serviceTransactions();
+        }
+    }
+
+    private void failTransactions(String message) {
+        for (TransactionQueue.Transaction transaction : transactions.clear()) {
+            mHandler.removeCallbacksAndMessages(transaction);
+            transaction.getCallback().onError(message);
+        }
+        if (transactionsPending) {
+            transactionsPending = false;
+            updateConsumers();
+        }
+    }
+
+    /**
+     * Encode a message with the connection's charset.
+     */
+    public byte[] encode(String message) {
+        return writeCodec.encode(message);
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @param options  tagged to pass the device address to the callback with every frame,
+     *                 batchSize and batchInterval to send frames in batches
+     */
+    public void subscribe(String newDelimiter, JSONObject options, CallbackContext callbackContext) {
+        delimiterScanner = new DelimiterScanner(newDelimiter.getBytes(reader.charset()));
+        dataTagged = options.optBoolean(OPTION_TAGGED);
+        dataBatch = batchFor(options);
         dataAvailableCallback = callbackContext;
+        updateConsumers();
     }
 
     public void unsubscribe() {
-        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
-        dataAvailableCallback.sendPluginResult(result);
+        // frames that are still waiting in a batch go out first
+        flushDataBatch.run();
+        mHandler.removeCallbacks(flushDataBatch);
+
+        if (dataAvailableCallback != null) {
+            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+            dataAvailableCallback.sendPluginResult(result);
+        }
         dataAvailableCallback = null;
-        delimiter = null;
+        delimiterScanner = null;
+        updateConsumers();
     }
 
-    public void subscribeRaw(CallbackContext callbackContext) {
-        rawDataAvailableCallback = callbackContext;
+    /**
+     * @param options  same as for subscribe, and framing to get complete frames instead of chunks,
+     *                 see {@link Framer}
+     * @throws IllegalArgumentException if the framing option is invalid
+     */
+    public void subscribeRaw(JSONObject options, final CallbackContext callbackContext) {
+        final Framer framer = Framer.fromOption(options.optJSONObject(OPTION_FRAMING));
+        checkFraming(framer);
+        final boolean tagged = options.optBoolean(OPTION_TAGGED);
+        final FrameBatch batch = batchFor(options);
+        // in order with the chunks that are framed on the dispatch thread
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                rawDataTagged = tagged;
+                rawDataBatch = batch;
+                // bytes left over from an earlier framing don't belong to the new one
+                rawFramer = framer;
+                rawFrameBuffer.clear();
+                rawDataAvailableCallback = callbackContext;
+                updateConsumers();
+            }
+        });
     }
 
     public void unsubscribeRaw() {
-        rawDataAvailableCallback = null;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                flushRawDataBatch.run();
+                mHandler.removeCallbacks(flushRawDataBatch);
+
+                rawDataAvailableCallback = null;
+                rawFramer = null;
+                rawFrameBuffer.clear();
+                updateConsumers();
+            }
+        });
+    }
+
+    /**
+     * @param framer  The framing of a raw subscription, or null
+     * @throws IllegalArgumentException if the longest frame can't fit into the buffer
+     */
+    public void checkFraming(Framer framer) {
+        checkFraming(framer, buffer.getHighWaterMark());
+    }
+
+    private static void checkFraming(Framer framer, int bufferSize) {
+        if (framer != null && framer.minBufferSize() > bufferSize) {
+            throw new IllegalArgumentException("maxLength doesn't fit into bufferSize " + bufferSize);
+        }
     }
 
     public int available() {
-        return buffer.length();
+        return reader.available();
     }
 
+    /**
+     * Counters of the connection together with the current state of its buffers.
+     */
+    public JSONObject getStatistics() throws JSONException {
+        JSONObject json = statistics.toJSON();
+        json.put("address", address);
+        json.put("connected", isConnected());
+        json.put("state", connectionState.get().getName());
+        json.put("buffered", buffer.available());
+        json.put("bufferPeak", buffer.peakSize());
+        json.put("droppedBytes", buffer.droppedBytes());
+        json.put("writeQueueDepth", bluetoothSerialService.getWriteQueueDepth());
+        return json;
+    }
+
+    private final Runnable pushStatistics = new Runnable() {
+        @Override
+        public void run() {
+            CallbackContext callback = statisticsCallback;
+            if (callback == null) {
+                return;
+            }
+            try {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, getStatistics());
+                result.setKeepCallback(true);
+                callback.sendPluginResult(result);
+            } catch (JSONException e) {
+                if (LogLevel.error()) Log.e(TAG, "Can't send statistics", e);
+            }
+            mHandler.postDelayed(this, statisticsIntervalMillis);
+        }
+    };
+
+    /**
+     * Send the statistics to the callback every intervalMillis.
+     */
+    public void subscribeStatistics(long intervalMillis, CallbackContext callbackContext) {
+        mHandler.removeCallbacks(pushStatistics);
+        statisticsIntervalMillis = intervalMillis;
+        statisticsCallback = callbackContext;
+        mHandler.post(pushStatistics);
+    }
+
+    public void unsubscribeStatistics() {
+        mHandler.removeCallbacks(pushStatistics);
+        if (statisticsCallback != null) {
+            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+            statisticsCallback.sendPluginResult(result);
+        }
+        statisticsCallback = null;
+    }
+
+    /**
+     * Read all complete characters in the buffer. A character that is only
+     * partially received stays in the buffer until the rest arrives.
+     */
     public String read() {
-        int length = buffer.length();
-        String data = buffer.substring(0, length);
-        buffer.delete(0, length);
-        return data;
+        return reader.read();
     }
 
     public String readUntil(String c) {
-        String data = "";
-        int index = buffer.indexOf(c, 0);
-        if (index > -1) {
-            data = buffer.substring(0, index + c.length());
-            buffer.delete(0, index + c.length());
-        }
-        return data;
+        return reader.readUntil(c);
     }
 
     public void clear() {
-        buffer.setLength(0);
+        reader.clear();
+    }
+
+    /**
+     * Apply the connect options. All of them are checked before any is
+     * applied, so invalid options leave the connection as it was.
+     * @throws IllegalArgumentException if the options are invalid
+     */
+    private void configure(JSONObject options) {
+        if (options == null) {
+            return;
+        }
+
+        int highWaterMark = options.optInt(OPTION_BUFFER_SIZE, buffer.getHighWaterMark());
+        if (highWaterMark <= 0) {
+            throw new IllegalArgumentException("Invalid bufferSize " + highWaterMark);
+        }
+        ByteRingBuffer.OverflowPolicy overflowPolicy = buffer.getOverflowPolicy();
+
+        String overflow = options.optString(OPTION_OVERFLOW, "");
+        if (overflow.equals("dropOldest")) {
+            overflowPolicy = ByteRingBuffer.OverflowPolicy.DROP_OLDEST;
+        } else if (overflow.equals("dropNewest")) {
+            overflowPolicy = ByteRingBuffer.OverflowPolicy.DROP_NEWEST;
+        } else if (overflow.equals("backpressure")) {
+            overflowPolicy = ByteRingBuffer.OverflowPolicy.BACKPRESSURE;
+        } else if (!overflow.isEmpty()) {
+            throw new IllegalArgumentException("Unknown overflow policy " + overflow);
+        }
+
+        // the frames of a raw subscription are collected in a buffer of the same size
+        checkFraming(rawFramer, highWaterMark);
+
+        int writeQueueSize = options.optInt(OPTION_WRITE_QUEUE_SIZE, BluetoothSerialWriter.DEFAULT_QUEUE_SIZE);
+        int writeBatchSize = options.optInt(OPTION_WRITE_BATCH_SIZE, BluetoothSerialWriter.DEFAULT_BATCH_SIZE);
+        int writeLinger = options.optInt(OPTION_WRITE_LINGER, BluetoothSerialWriter.DEFAULT_LINGER_MILLIS);
+        if (writeQueueSize <= 0 || writeBatchSize <= 0 || writeLinger < 0) {
+            throw new IllegalArgumentException("Invalid write options");
+        }
+
+        // readBufferSize is a number of bytes or "adaptive"
+        boolean readAdaptive = READ_BUFFER_ADAPTIVE.equals(options.opt(OPTION_READ_BUFFER_SIZE));
+        int readBufferSize = readAdaptive ? ChunkReader.DEFAULT_SIZE
+                : options.optInt(OPTION_READ_BUFFER_SIZE, ChunkReader.DEFAULT_SIZE);
+        int readMinBytes = options.optInt(OPTION_READ_MIN_BYTES, 0);
+        int readLinger = options.optInt(OPTION_READ_LINGER, 0);
+        if (readBufferSize < ChunkReader.MIN_SIZE || readBufferSize > ChunkReader.MAX_SIZE
+                || readMinBytes < 0 || readMinBytes > ChunkReader.MAX_SIZE || readLinger < 0) {
+            throw new IllegalArgumentException("Invalid read options");
+        }
+
+        ReconnectPolicy reconnectPolicy = ReconnectPolicy.fromOption(options.opt(OPTION_RECONNECT));
+
+        final int pipelineDepth = options.optInt(OPTION_PIPELINE_DEPTH, TransactionQueue.DEFAULT_DEPTH);
+        if (pipelineDepth <= 0) {
+            throw new IllegalArgumentException("Invalid pipelineDepth " + pipelineDepth);
+        }
+
+        Charset charset = null;
+        String charsetName = options.optString(OPTION_CHARSET, "");
+        if (!charsetName.isEmpty()) {
+            try {
+                charset = Charset.forName(charsetName);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported charset " + charsetName);
+            }
+        }
+
+        buffer.configure(highWaterMark, overflowPolicy);
+        final int frameBufferSize = highWaterMark;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                rawFrameBuffer.configure(frameBufferSize, rawFrameBuffer.getOverflowPolicy());
+            }
+        });
+        bluetoothSerialService.setWriteOptions(writeQueueSize, writeBatchSize, writeLinger);
+        bluetoothSerialService.setReadOptions(readBufferSize, readAdaptive, readMinBytes, readLinger);
+        bluetoothSerialService.setReconnectPolicy(reconnectPolicy);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                transactions.setDepth(pipelineDepth);
+            }
+        });
+        if (charset != null) {
+            reader.setCharset(charset);
+            if (!charset.equals(writeCodec.charset())) {
+                writeCodec = new CharsetCodec(charset);
+            }
+        }
+    }
+
+    /**
+     * The system reported that the link to the device is gone.
+     */
+    public void linkLost() {
+        bluetoothSerialService.linkLost();
     }
 
     public void stop() {
+        connectionState.transition(ConnectionState.State.CLOSED, "disconnect");
+        unsubscribeStatistics();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                failTransactions("device disconnected");
+            }
+        });
         if (bluetoothSerialService != null) {
             bluetoothSerialService.stop();
         }
@@ -0,0 +1,234 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Accepts incoming connections for the listen action.
+ *
+ * The server keeps accepting until it is stopped. Every accepted socket
+ * becomes the connection of its device, with its own buffer and threads,
+ * so the app reads and writes it by address like a connection it made.
+ * A device that connects while maxConnections accepted devices are still
+ * connected, or while the app is already connected to it, is turned away.
+ *
+ * The callback hears about every device that connected, was rejected or
+ * disconnected, and gets a stopped result when the server is stopped.
+ */
+class BluetoothSerialServer {
+
+    private static final String TAG = "BluetoothSerial";
+
+    static final String DEFAULT_NAME = "PhoneGapBluetoothSerialService";
+    static final UUID DEFAULT_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    // the most devices a classic Bluetooth piconet has active at once
+    static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+    private final BluetoothAdapter adapter;
+    private final ConnectAllTask.Connections connections;
+    private final JSONObject options;
+    private final CallbackContext callbackContext;
+    private final String name;
+    private final UUID uuid;
+    private final boolean secure;
+    private final int maxConnections;
+
+    // accepted devices by address, the ones no longer connected are dropped on the next accept
+    private final Map<String, BluetoothSerialConnection> accepted = new HashMap<>();
+    private BluetoothServerSocket serverSocket;
+    private volatile boolean stopped;
+
+    /**
+     * @param options  name, uuid, secure and maxConnections, the rest are connect options for every device
+     * @throws IllegalArgumentException if the options are invalid
+     */
+    BluetoothSerialServer(BluetoothAdapter adapter, ConnectAllTask.Connections connections,
+                          JSONObject options, CallbackContext callbackContext) {
+        this.adapter = adapter;
+        this.connections = connections;
+        this.options = options;
+        this.callbackContext = callbackContext;
+        this.name = options.optString("name", DEFAULT_NAME);
+        String uuidOption = options.optString("uuid", "");
+        this.uuid = uuidOption.isEmpty() ? DEFAULT_UUID : UUID.fromString(uuidOption);
+        this.secure = options.optBoolean("secure", true);
+        this.maxConnections = options.optInt("maxConnections", DEFAULT_MAX_CONNECTIONS);
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Invalid maxConnections " + maxConnections);
+        }
+    }
+
+    /**
+     * Open the server socket and start accepting on a thread of its own.
+     */
+    void start() throws IOException {
+        if (secure) {
+            serverSocket = adapter.listenUsingRfcommWithServiceRecord(name, uuid);
+        } else {
+            serverSocket = adapter.listenUsingInsecureRfcommWithServiceRecord(name, uuid);
+        }
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "BluetoothSerialAccept");
+        acceptThread.start();
+    }
+
+    /**
+     * Stop accepting. The devices that are connected stay connected.
+     */
+    void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                if (LogLevel.error()) Log.e(TAG, "close() of server failed", e);
+            }
+        }
+        JSONObject json = new JSONObject();
+        try {
+            json.put("state", "stopped");
+        } catch (JSONException e) {
+            // can't happen with these keys and values
+        }
+        callbackContext.success(json);
+    }
+
+    private void acceptLoop() {
+        if (LogLevel.debug()) Log.d(TAG, "listening as " + name);
+        while (!stopped) {
+            BluetoothSocket socket;
+            try {
+                // blocks until a device connects or the server socket is closed
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!stopped) {
+                    if (LogLevel.error()) Log.e(TAG, "accept() failed", e);
+                    stopped = true;
+                    callbackContext.error("Listening failed: " + e.getMessage());
+                }
+                return;
+            }
+            if (socket != null) {
+                accept(socket);
+            }
+        }
+    }
+
+    private void accept(BluetoothSocket socket) {
+        String address = socket.getRemoteDevice().getAddress();
+        String rejected = null;
+        BluetoothSerialConnection conn = null;
+
+        synchronized (this) {
+            Iterator<BluetoothSerialConnection> it = accepted.values().iterator();
+            while (it.hasNext()) {
+                if (!it.next().isConnected()) {
+                    it.remove();
+                }
+            }
+
+            if (accepted.size() >= maxConnections) {
+                rejected = "Too many connections";
+            } else {
+                conn = connections.obtain(address);
+                if (conn.isConnected()) {
+                    rejected = "Already connected";
+                } else {
+                    accepted.put(address, conn);
+                }
+            }
+        }
+
+        if (rejected != null) {
+            if (LogLevel.warn()) Log.w(TAG, "rejected " + address + ": " + rejected);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                if (LogLevel.error()) Log.e(TAG, "Could not close unwanted socket", e);
+            }
+            report(address, "rejected", rejected);
+            return;
+        }
+
+        try {
+            conn.accept(new BluetoothSocketTransport(socket, secure), options, new Peer(address));
+        } catch (IllegalArgumentException e) {
+            synchronized (this) {
+                accepted.remove(address);
+            }
+            try {
+                socket.close();
+            } catch (IOException closeFailed) {
+                if (LogLevel.error()) Log.e(TAG, "Could not close unwanted socket", closeFailed);
+            }
+            report(address, "rejected", e.getMessage());
+        }
+    }
+
+    private void report(String address, String state, String error) {
+        if (stopped) {
+            // the callback got its last result
+            return;
+        }
+        JSONObject json = new JSONObject();
+        try {
+            json.put("address", address);
+            json.put("state", state);
+            if (error != null) {
+                json.put("error", error);
+            }
+        } catch (JSONException e) {
+            // can't happen with these keys and values
+        }
+        PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private class Peer implements BluetoothSerialConnection.ConnectListener {
+        private final String address;
+
+        Peer(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public void onConnected() {
+            report(address, "connected", null);
+        }
+
+        @Override
+        public void onReconnecting(int attempt, int delay) {
+            // accepted connections aren't reconnected
+        }
+
+        @Override
+        public void onConnectionLost(String error) {
+            synchronized (BluetoothSerialServer.this) {
+                accepted.remove(address);
+            }
+            report(address, "disconnected", error);
+        }
+    }
+}
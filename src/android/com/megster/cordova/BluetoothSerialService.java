@@ -3,13 +3,7 @@ package com.megster.cordova;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.UUID;
-import java.util.Arrays;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -17,38 +11,45 @@ import android.util.Log;
 
 /**
  * This class does all the work for setting up and managing Bluetooth
- * connections with other devices. It has a thread that listens for
- * incoming connections, a thread for connecting with a device, and a
- * thread for performing data transmissions when connected.
+ * connections with other devices. It has a thread for connecting with a
+ * device, and a thread for performing data transmissions when connected.
+ * Incoming connections are accepted by a BluetoothSerialServer, which
+ * hands each of them to its own service with accepted().
+ *
+ * Connections are made and used through a {@link SerialTransport}, which
+ * is an RFCOMM socket unless a different transport is passed to connect.
  *
  * This code was based on the Android SDK BluetoothChat Sample
  * $ANDROID_SDK/samples/android-17/BluetoothChat
  */
 public class BluetoothSerialService {
-
-    // Debugging
+    // Debugging, see LogLevel
     private static final String TAG = "BluetoothSerialService";
-    private static final boolean D = true;
-
-    // Name for the SDP record when creating server socket
-    private static final String NAME_SECURE = "PhoneGapBluetoothSerialServiceSecure";
-    private static final String NAME_INSECURE = "PhoneGapBluetoothSerialServiceInSecure";
-
-    // Unique UUID for this application
-    private static final UUID MY_UUID_SECURE = UUID.fromString("7A9C3B55-78D0-44A7-A94E-A93E3FE118CE");
-    private static final UUID MY_UUID_INSECURE = UUID.fromString("23F18142-B389-4772-93BD-52BDBB2C03E9");
-
-    // Well known SPP UUID
-    private static final UUID UUID_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
     // Member fields
-    private final BluetoothAdapter mAdapter;
     private final Handler mHandler;
-    private AcceptThread mSecureAcceptThread;
-    private AcceptThread mInsecureAcceptThread;
+    private final ByteRingBuffer mReadBuffer;
+    private final ByteArrayPool mRawPool;
+    private final ConnectionStatistics mStatistics;
+    private final SerialIoPool mIoPool;
+    private volatile int mConsumers = CONSUMER_BUFFER;
+    private int mWriteQueueSize = BluetoothSerialWriter.DEFAULT_QUEUE_SIZE;
+    private int mWriteBatchSize = BluetoothSerialWriter.DEFAULT_BATCH_SIZE;
+    private int mWriteLingerMillis = BluetoothSerialWriter.DEFAULT_LINGER_MILLIS;
+    private int mReadBufferSize = ChunkReader.DEFAULT_SIZE;
+    private boolean mReadAdaptive;
+    private int mReadMinBytes;
+    private int mReadLingerMillis;
+
+    // Reconnect state, the transport of the last connection is connected again
+    private ReconnectPolicy mReconnectPolicy;
+    private SerialTransport mLastTransport;
+    private int mReconnectAttempt;
+
     private ConnectThread mConnectThread;
     private ConnectedThread mConnectedThread;
-    private int mState;
+    // written under the service lock, read without it
+    private volatile int mState;
 
     // Constants that indicate the current connection state
     public static final int STATE_NONE = 0;       // we're doing nothing
@@ -56,14 +57,88 @@ public class BluetoothSerialService {
     public static final int STATE_CONNECTING = 2; // now initiating an outgoing connection
     public static final int STATE_CONNECTED = 3;  // now connected to a remote device
 
+    // Message types sent to the Handler
+    public static final int MESSAGE_STATE_CHANGE = 1;
+    public static final int MESSAGE_READ = 2;
+    public static final int MESSAGE_DEVICE_NAME = 4;
+    public static final int MESSAGE_TOAST = 5;
+    public static final int MESSAGE_READ_RAW = 6;
+    public static final int MESSAGE_RECONNECTING = 7;
+
+    // Key names in the data of the messages
+    public static final String DEVICE_NAME = "device_name";
+    public static final String TOAST = "toast";
+
+    // Flags that tell the reader what incoming data is needed for
+    public static final int CONSUMER_BUFFER = 1;      // keep data in the read buffer
+    public static final int CONSUMER_SUBSCRIBER = 2;  // notify the handler when the buffer got data
+    public static final int CONSUMER_RAW = 4;         // send each chunk to the handler
+
     /**
      * Constructor. Prepares a new BluetoothSerial session.
      * @param handler  A Handler to send messages back to the UI Activity
+     * @param readBuffer  The buffer incoming data ends up in, reads pause while it is full
+     * @param rawPool  Arrays for MESSAGE_READ_RAW come from here, the handler gives them back
+     * @param statistics  Traffic, connects and reconnects are recorded here
+     */
+    public BluetoothSerialService(Handler handler, ByteRingBuffer readBuffer, ByteArrayPool rawPool,
+                                  ConnectionStatistics statistics) {
+        this(handler, readBuffer, rawPool, statistics, null);
+    }
+
+    /**
+     * @param ioPool  Shared threads to connect, read and write on, null for threads of this connection
      */
-    public BluetoothSerialService(Handler handler) {
-        mAdapter = BluetoothAdapter.getDefaultAdapter();
+    public BluetoothSerialService(Handler handler, ByteRingBuffer readBuffer, ByteArrayPool rawPool,
+                                  ConnectionStatistics statistics, SerialIoPool ioPool) {
         mState = STATE_NONE;
         mHandler = handler;
+        mReadBuffer = readBuffer;
+        mRawPool = rawPool;
+        mStatistics = statistics;
+        mIoPool = ioPool;
+    }
+
+    /**
+     * Set what incoming data is needed for, the reader skips any work nobody needs.
+     * @param consumers  A combination of the CONSUMER_ flags
+     */
+    public void setConsumers(int consumers) {
+        mConsumers = consumers;
+    }
+
+    /**
+     * Configure the writer of the next connection.
+     * @param queueSize  Maximum number of queued writes
+     * @param batchSize  Queued writes are joined into batches of up to this many bytes
+     * @param lingerMillis  How long to wait for more writes before flushing a batch
+     */
+    public synchronized void setWriteOptions(int queueSize, int batchSize, int lingerMillis) {
+        mWriteQueueSize = queueSize;
+        mWriteBatchSize = batchSize;
+        mWriteLingerMillis = lingerMillis;
+    }
+
+    /**
+     * Configure the reader of the next connection.
+     * @param bufferSize  Size of the read buffer, the initial size if adaptive
+     * @param adaptive  Grow and shrink the read buffer with the size of the reads
+     * @param minBytes  Reads shorter than this wait for more bytes before they are dispatched
+     * @param lingerMillis  How long a short read waits for more bytes
+     */
+    public synchronized void setReadOptions(int bufferSize, boolean adaptive, int minBytes, int lingerMillis) {
+        mReadBufferSize = bufferSize;
+        mReadAdaptive = adaptive;
+        mReadMinBytes = minBytes;
+        mReadLingerMillis = lingerMillis;
+    }
+
+    /**
+     * Set how a lost connection is reconnected.
+     * @param policy  The reconnect policy, null to not reconnect
+     */
+    public synchronized void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
     }
 
     /**
@@ -71,24 +146,23 @@ public class BluetoothSerialService {
      * @param state  An integer defining the current connection state
      */
     private synchronized void setState(int state) {
-        if (D) Log.d(TAG, "setState() " + mState + " -> " + state);
+        if (LogLevel.debug()) Log.d(TAG, "setState() " + mState + " -> " + state);
         mState = state;
 
         // Give the new state to the Handler so the UI Activity can update
-        mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
+        mHandler.obtainMessage(MESSAGE_STATE_CHANGE, state, -1).sendToTarget();
     }
 
     /**
-     * Return the current connection state. */
-    public synchronized int getState() {
+     * Return the current connection state. Doesn't wait for a connect or stop in progress. */
+    public int getState() {
         return mState;
     }
 
     /**
-     * Start the chat service. Specifically start AcceptThread to begin a
-     * session in listening (server) mode. Called by the Activity onResume() */
+     * Reset the service after a connection ended. */
     public synchronized void start() {
-        if (D) Log.d(TAG, "start");
+        if (LogLevel.debug()) Log.d(TAG, "start");
 
         // Cancel any thread attempting to make a connection
         if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
@@ -97,28 +171,22 @@ public class BluetoothSerialService {
         if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
 
         setState(STATE_NONE);
-
-//      Listen isn't working with Arduino. Ignore since assuming the phone will initiate the connection.
-//        setState(STATE_LISTEN);
-//
-//        // Start the thread to listen on a BluetoothServerSocket
-//        if (mSecureAcceptThread == null) {
-//            mSecureAcceptThread = new AcceptThread(true);
-//            mSecureAcceptThread.start();
-//        }
-//        if (mInsecureAcceptThread == null) {
-//            mInsecureAcceptThread = new AcceptThread(false);
-//            mInsecureAcceptThread.start();
-//        }
     }
 
     /**
-     * Start the ConnectThread to initiate a connection to a remote device.
-     * @param device  The BluetoothDevice to connect
-     * @param secure Socket Security type - Secure (true) , Insecure (false)
+     * Start the ConnectThread to initiate a connection over any transport.
+     * @param transport  The transport to connect, e.g. a LoopbackTransport
      */
-    public synchronized void connect(BluetoothDevice device, boolean secure) {
-        if (D) Log.d(TAG, "connect to: " + device);
+    public synchronized void connect(SerialTransport transport) {
+        // A new connection, forget about the last one
+        cancelReconnect();
+        mLastTransport = transport;
+
+        startConnect(transport);
+    }
+
+    private synchronized void startConnect(SerialTransport transport) {
+        if (LogLevel.debug()) Log.d(TAG, "connect to: " + transport.getName());
 
         // Cancel any thread attempting to make a connection
         if (mState == STATE_CONNECTING) {
@@ -128,19 +196,33 @@ public class BluetoothSerialService {
         // Cancel any thread currently running a connection
         if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
 
-        // Start the thread to connect with the given device
-        mConnectThread = new ConnectThread(device, secure);
-        mConnectThread.start();
+        // Start the thread to connect with the given device, or wait for a shared one
+        mConnectThread = new ConnectThread(transport);
+        if (mIoPool != null) {
+            mIoPool.connectExecutor().execute(mConnectThread);
+        } else {
+            mConnectThread.start();
+        }
         setState(STATE_CONNECTING);
     }
 
     /**
-     * Start the ConnectedThread to begin managing a Bluetooth connection
-     * @param socket  The BluetoothSocket on which the connection was made
-     * @param device  The BluetoothDevice that has been connected
+     * Use a connection a server accepted. It can't be reconnected, so a
+     * reconnect policy doesn't apply to it.
+     * @param transport  The transport of the accepted socket
      */
-    public synchronized void connected(BluetoothSocket socket, BluetoothDevice device, final String socketType) {
-        if (D) Log.d(TAG, "connected, Socket Type:" + socketType);
+    public synchronized void accepted(SerialTransport transport) {
+        cancelReconnect();
+        mLastTransport = null;
+        connected(transport);
+    }
+
+    /**
+     * Start the ConnectedThread to begin managing a connection
+     * @param transport  The transport on which the connection was made
+     */
+    public synchronized void connected(SerialTransport transport) {
+        if (LogLevel.debug()) Log.d(TAG, "connected to: " + transport.getName());
 
         // Cancel the thread that completed the connection
         if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
@@ -148,24 +230,16 @@ public class BluetoothSerialService {
         // Cancel any thread currently running a connection
         if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
 
-        // Cancel the accept thread because we only want to connect to one device
-        if (mSecureAcceptThread != null) {
-            mSecureAcceptThread.cancel();
-            mSecureAcceptThread = null;
-        }
-        if (mInsecureAcceptThread != null) {
-            mInsecureAcceptThread.cancel();
-            mInsecureAcceptThread = null;
-        }
-
         // Start the thread to manage the connection and perform transmissions
-        mConnectedThread = new ConnectedThread(socket, socketType);
+        mConnectedThread = new ConnectedThread(transport,
+                mWriteQueueSize, mWriteBatchSize, mWriteLingerMillis,
+                mReadBufferSize, mReadAdaptive, mReadMinBytes, mReadLingerMillis);
         mConnectedThread.start();
 
         // Send the name of the connected device back to the UI Activity
-        Message msg = mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_DEVICE_NAME);
+        Message msg = mHandler.obtainMessage(MESSAGE_DEVICE_NAME);
         Bundle bundle = new Bundle();
-        bundle.putString(BluetoothSerialConnection.DEVICE_NAME, device.getName());
+        bundle.putString(DEVICE_NAME, transport.getName());
         msg.setData(bundle);
         mHandler.sendMessage(msg);
 
@@ -176,7 +250,9 @@ public class BluetoothSerialService {
      * Stop all threads
      */
     public synchronized void stop() {
-        if (D) Log.d(TAG, "stop");
+        if (LogLevel.debug()) Log.d(TAG, "stop");
+
+        cancelReconnect();
 
         if (mConnectThread != null) {
             mConnectThread.cancel();
@@ -187,44 +263,71 @@ public class BluetoothSerialService {
             mConnectedThread.cancel();
             mConnectedThread = null;
         }
-
-        if (mSecureAcceptThread != null) {
-            mSecureAcceptThread.cancel();
-            mSecureAcceptThread = null;
-        }
-
-        if (mInsecureAcceptThread != null) {
-            mInsecureAcceptThread.cancel();
-            mInsecureAcceptThread = null;
-        }
         setState(STATE_NONE);
     }
 
     /**
-     * Write to the ConnectedThread in an unsynchronized manner
+     * Queue data on the writer of the ConnectedThread in an unsynchronized manner
      * @param out The bytes to write
-     * @see ConnectedThread#write(byte[])
+     * @param callback Called once the bytes were written or the write failed
+     * @see ConnectedThread#write(byte[], BluetoothSerialWriter.Callback)
      */
-    public void write(byte[] out) throws IOException {
+    public void write(byte[] out, BluetoothSerialWriter.Callback callback) {
         // Create temporary object
         ConnectedThread r;
         // Synchronize a copy of the ConnectedThread
         synchronized (this) {
-            if (mState != STATE_CONNECTED) return;
+            if (mState != STATE_CONNECTED) {
+                callback.onError("Not connected");
+                return;
+            }
             r = mConnectedThread;
         }
         // Perform the write unsynchronized
-        r.write(out);
+        r.write(out, callback);
+    }
+
+    /**
+     * The link to the device is gone, e.g. the system reported the ACL
+     * disconnected. Closes the transport so the reader notices, which a
+     * shared reader polling available() wouldn't on its own.
+     */
+    public void linkLost() {
+        ConnectedThread r;
+        synchronized (this) {
+            r = mConnectedThread;
+        }
+        if (r != null) {
+            r.closeTransport();
+        }
+    }
+
+    /**
+     * @return the number of writes waiting to be written, 0 if not connected
+     */
+    public synchronized int getWriteQueueDepth() {
+        return mConnectedThread != null ? mConnectedThread.mmWriter.queueDepth() : 0;
     }
 
     /**
      * Indicate that the connection attempt failed and notify the UI Activity.
      */
     private void connectionFailed() {
+        // A failed reconnect attempt goes on to the next one
+        synchronized (this) {
+            if (mReconnectAttempt > 0) {
+                if (scheduleReconnect()) {
+                    return;
+                }
+                connectionLost(true);
+                return;
+            }
+        }
+
         // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_TOAST);
+        Message msg = mHandler.obtainMessage(MESSAGE_TOAST);
         Bundle bundle = new Bundle();
-        bundle.putString(BluetoothSerialConnection.TOAST, "Unable to connect to device");
+        bundle.putString(TOAST, "Unable to connect to device");
         msg.setData(bundle);
         mHandler.sendMessage(msg);
 
@@ -233,13 +336,19 @@ public class BluetoothSerialService {
     }
 
     /**
-     * Indicate that the connection was lost and notify the UI Activity.
+     * Indicate that the connection was lost and notify the UI Activity,
+     * unless the reconnect policy says to try to connect again.
+     * @param finished  true if the connection won't be tried again
      */
-    private void connectionLost() {
+    private void connectionLost(boolean finished) {
+        if (!finished && scheduleReconnect()) {
+            return;
+        }
+
         // Send a failure message back to the Activity
-        Message msg = mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_TOAST);
+        Message msg = mHandler.obtainMessage(MESSAGE_TOAST);
         Bundle bundle = new Bundle();
-        bundle.putString(BluetoothSerialConnection.TOAST, "Device connection was lost");
+        bundle.putString(TOAST, "Device connection was lost");
         msg.setData(bundle);
         mHandler.sendMessage(msg);
 
@@ -247,87 +356,50 @@ public class BluetoothSerialService {
         BluetoothSerialService.this.start();
     }
 
-    /**
-     * This thread runs while listening for incoming connections. It behaves
-     * like a server-side client. It runs until a connection is accepted
-     * (or until cancelled).
-     */
-    private class AcceptThread extends Thread {
-        // The local server socket
-        private final BluetoothServerSocket mmServerSocket;
-        private String mSocketType;
-
-        public AcceptThread(boolean secure) {
-            BluetoothServerSocket tmp = null;
-            mSocketType = secure ? "Secure":"Insecure";
-
-            // Create a new listening server socket
-            try {
-                if (secure) {
-                    tmp = mAdapter.listenUsingRfcommWithServiceRecord(NAME_SECURE, MY_UUID_SECURE);
-                } else {
-                    tmp = mAdapter.listenUsingInsecureRfcommWithServiceRecord(NAME_INSECURE, MY_UUID_INSECURE);
+    private final Runnable mReconnect = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BluetoothSerialService.this) {
+                if (mReconnectAttempt > 0 && mLastTransport != null) {
+                    if (LogLevel.debug()) Log.d(TAG, "reconnect attempt " + mReconnectAttempt);
+                    startConnect(mLastTransport);
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Socket Type: " + mSocketType + "listen() failed", e);
             }
-            mmServerSocket = tmp;
         }
+    };
 
-        public void run() {
-            if (D) Log.d(TAG, "Socket Type: " + mSocketType + "BEGIN mAcceptThread" + this);
-            setName("AcceptThread" + mSocketType);
-
-            BluetoothSocket socket;
-
-            // Listen to the server socket if we're not connected
-            while (mState != STATE_CONNECTED) {
-                try {
-                    // This is a blocking call and will only return on a
-                    // successful connection or an exception
-                    socket = mmServerSocket.accept();
-                } catch (IOException e) {
-                    Log.e(TAG, "Socket Type: " + mSocketType + "accept() failed", e);
-                    break;
-                }
+    /**
+     * Schedule the next reconnect attempt, if the policy allows another one.
+     * The handler is told about it with MESSAGE_RECONNECTING.
+     * @return false if there won't be another attempt
+     */
+    private synchronized boolean scheduleReconnect() {
+        if (mReconnectPolicy == null || mLastTransport == null
+                || mReconnectAttempt >= mReconnectPolicy.getMaxAttempts()) {
+            mReconnectAttempt = 0;
+            return false;
+        }
 
-                // If a connection was accepted
-                if (socket != null) {
-                    synchronized (BluetoothSerialService.this) {
-                        switch (mState) {
-                            case STATE_LISTEN:
-                            case STATE_CONNECTING:
-                                // Situation normal. Start the connected thread.
-                                connected(socket, socket.getRemoteDevice(),
-                                        mSocketType);
-                                break;
-                            case STATE_NONE:
-                            case STATE_CONNECTED:
-                                // Either not ready or already connected. Terminate new socket.
-                                try {
-                                    socket.close();
-                                } catch (IOException e) {
-                                    Log.e(TAG, "Could not close unwanted socket", e);
-                                }
-                                break;
-                        }
-                    }
-                }
-            }
-            if (D) Log.i(TAG, "END mAcceptThread, socket Type: " + mSocketType);
+        // Close what is left of the lost connection
+        if (mConnectThread != null) {mConnectThread.cancel(); mConnectThread = null;}
+        if (mConnectedThread != null) {mConnectedThread.cancel(); mConnectedThread = null;}
 
-        }
+        mReconnectAttempt++;
+        mStatistics.recordReconnect();
+        long delay = mReconnectPolicy.delayFor(mReconnectAttempt);
+        if (LogLevel.debug()) Log.d(TAG, "reconnect attempt " + mReconnectAttempt + " in " + delay + "ms");
 
-        public void cancel() {
-            if (D) Log.d(TAG, "Socket Type" + mSocketType + "cancel " + this);
-            try {
-                mmServerSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Socket Type" + mSocketType + "close() of server failed", e);
-            }
-        }
+        setState(STATE_CONNECTING);
+        mHandler.obtainMessage(MESSAGE_RECONNECTING,
+                mReconnectAttempt, (int) delay).sendToTarget();
+        mHandler.postDelayed(mReconnect, delay);
+        return true;
     }
 
+    private synchronized void cancelReconnect() {
+        mReconnectAttempt = 0;
+        mHandler.removeCallbacks(mReconnect);
+    }
 
     /**
      * This thread runs while attempting to make an outgoing connection
@@ -335,160 +407,246 @@ public class BluetoothSerialService {
      * succeeds or fails.
      */
     private class ConnectThread extends Thread {
-        private /*final*/ BluetoothSocket mmSocket;
-        private final BluetoothDevice mmDevice;
-        private String mSocketType;
-
-        public ConnectThread(BluetoothDevice device, boolean secure) {
-            mmDevice = device;
-            BluetoothSocket tmp = null;
-            mSocketType = secure ? "Secure" : "Insecure";
+        private final SerialTransport mmTransport;
+        private volatile boolean mmCancelled;
 
-            // Get a BluetoothSocket for a connection with the given BluetoothDevice
-            try {
-                if (secure) {
-                    // tmp = device.createRfcommSocketToServiceRecord(MY_UUID_SECURE);
-                    tmp = device.createRfcommSocketToServiceRecord(UUID_SPP);
-                } else {
-                    //tmp = device.createInsecureRfcommSocketToServiceRecord(MY_UUID_INSECURE);
-                    tmp = device.createInsecureRfcommSocketToServiceRecord(UUID_SPP);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Socket Type: " + mSocketType + "create() failed", e);
-            }
-            mmSocket = tmp;
+        public ConnectThread(SerialTransport transport) {
+            // only names a thread of its own, a shared pool runs it on its connect threads
+            super("ConnectThread");
+            mmTransport = transport;
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectThread SocketType:" + mSocketType);
-            setName("ConnectThread" + mSocketType);
-
-            // Always cancel discovery because it will slow down a connection
-            mAdapter.cancelDiscovery();
+            // with a shared pool the attempt may have waited in the queue and been cancelled meanwhile
+            if (mmCancelled) {
+                return;
+            }
+            if (LogLevel.info()) Log.i(TAG, "BEGIN mConnectThread " + mmTransport.getName());
 
-            // Make a connection to the BluetoothSocket
+            // Make a connection, this is a blocking call and will only
+            // return on a successful connection or an exception
+            long started = System.currentTimeMillis();
             try {
-                // This is a blocking call and will only return on a successful connection or an exception
-                Log.i(TAG,"Connecting to socket...");
-                mmSocket.connect();
-                Log.i(TAG,"Connected");
+                mmTransport.connect();
+                mStatistics.recordConnect(System.currentTimeMillis() - started);
             } catch (IOException e) {
-                Log.e(TAG, e.toString());
-
-                // Some 4.1 devices have problems, try an alternative way to connect
-                // See https://github.com/don/BluetoothSerial/issues/89
-                try {
-                    Log.i(TAG,"Trying fallback...");
-                    mmSocket = (BluetoothSocket) mmDevice.getClass().getMethod("createRfcommSocket", new Class[] {int.class}).invoke(mmDevice,1);
-                    mmSocket.connect();
-                    Log.i(TAG,"Connected");
-                } catch (Exception e2) {
-                    Log.e(TAG, "Couldn't establish a Bluetooth connection.");
-                    try {
-                        mmSocket.close();
-                    } catch (IOException e3) {
-                        Log.e(TAG, "unable to close() " + mSocketType + " socket during connection failure", e3);
+                synchronized (BluetoothSerialService.this) {
+                    // a cancelled or replaced attempt must not tear down the connect that replaced it
+                    if (mmCancelled || this != mConnectThread) {
+                        if (LogLevel.debug()) Log.d(TAG, "cancelled connect ended: " + e.getMessage());
+                        return;
                     }
+                    if (LogLevel.error()) Log.e(TAG, "Couldn't establish a connection.", e);
                     connectionFailed();
-                    return;
                 }
+                return;
             }
 
-            // Reset the ConnectThread because we're done
             synchronized (BluetoothSerialService.this) {
+                // cancelled while connecting, e.g. a connectAll timeout or a disconnect
+                if (mmCancelled) {
+                    try {
+                        mmTransport.close();
+                    } catch (IOException e) {
+                        if (LogLevel.error()) Log.e(TAG, "close() of cancelled transport failed", e);
+                    }
+                    return;
+                }
+
+                // Reset the ConnectThread because we're done
                 mConnectThread = null;
-            }
+                mReconnectAttempt = 0;
 
-            // Start the connected thread
-            connected(mmSocket, mmDevice, mSocketType);
+                // Start the connected thread
+                connected(mmTransport);
+            }
         }
 
         public void cancel() {
+            mmCancelled = true;
             try {
-                mmSocket.close();
+                mmTransport.close();
             } catch (IOException e) {
-                Log.e(TAG, "close() of connect " + mSocketType + " socket failed", e);
+                if (LogLevel.error()) Log.e(TAG, "close() of connect transport failed", e);
             }
         }
     }
 
     /**
      * This thread runs during a connection with a remote device.
-     * It handles all incoming and outgoing transmissions.
+     * It handles all incoming transmissions, outgoing ones go through
+     * its BluetoothSerialWriter. With a shared pool the thread isn't
+     * started, a shared reader polls it instead.
      */
-    private class ConnectedThread extends Thread {
-        private final BluetoothSocket mmSocket;
-        private final InputStream mmInStream;
+    private class ConnectedThread extends Thread implements SerialIoPool.Pollable {
+        private final SerialTransport mmTransport;
+        private final ChunkReader mmReader;
         private final OutputStream mmOutStream;
-
-        public ConnectedThread(BluetoothSocket socket, String socketType) {
-            Log.d(TAG, "create ConnectedThread: " + socketType);
-            mmSocket = socket;
+        private final BluetoothSerialWriter mmWriter;
+        private volatile boolean mmCancelled;
+
+        public ConnectedThread(SerialTransport transport,
+                               int writeQueueSize, int writeBatchSize, int writeLingerMillis,
+                               int readBufferSize, boolean readAdaptive, int readMinBytes, int readLingerMillis) {
+            if (LogLevel.debug()) Log.d(TAG, "create ConnectedThread: " + transport.getName());
+            mmTransport = transport;
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
 
-            // Get the BluetoothSocket input and output streams
+            // Get the transport input and output streams
             try {
-                tmpIn = socket.getInputStream();
-                tmpOut = socket.getOutputStream();
+                tmpIn = transport.getInputStream();
+                tmpOut = transport.getOutputStream();
             } catch (IOException e) {
-                Log.e(TAG, "temp sockets not created", e);
+                if (LogLevel.error()) Log.e(TAG, "temp sockets not created", e);
             }
 
-            mmInStream = tmpIn;
+            // a shared reader can't linger, polling joins what arrives within a poll interval anyway
+            if (mIoPool != null) {
+                readLingerMillis = 0;
+            }
+            mmReader = new ChunkReader(tmpIn, readBufferSize, readAdaptive, readMinBytes, readLingerMillis);
             mmOutStream = tmpOut;
+            mmWriter = new BluetoothSerialWriter(tmpOut, writeQueueSize, writeBatchSize, writeLingerMillis,
+                    mStatistics);
+        }
+
+        @Override
+        public synchronized void start() {
+            if (mIoPool != null) {
+                mmWriter.start(mIoPool.writeExecutor());
+                mIoPool.register(this);
+            } else {
+                mmWriter.start();
+                super.start();
+            }
         }
 
         public void run() {
-            Log.i(TAG, "BEGIN mConnectedThread");
-            byte[] buffer = new byte[1024];
-            int bytes;
+            if (LogLevel.info()) Log.i(TAG, "BEGIN mConnectedThread");
 
             // Keep listening to the InputStream while connected
             while (true) {
                 try {
-                    // Read from the InputStream
-                    bytes = mmInStream.read(buffer);
-                    String data = new String(buffer, 0, bytes);
-
-                    // Send the new data String to the UI Activity
-                    mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_READ, data).sendToTarget();
-
-                    // Send the raw bytestream to the UI Activity.
-                    // We make a copy because the full array can have extra data at the end
-                    // when / if we read less than its size.
-                    if (bytes > 0) {
-                        byte[] rawdata = Arrays.copyOf(buffer, bytes);
-                        mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_READ_RAW, rawdata).sendToTarget();
-                    }
+                    // Don't read more while the buffer is full and the overflow policy is backpressure
+                    mReadBuffer.awaitCapacity();
 
+                    // Read from the InputStream, the reader may replace its buffer between reads
+                    int bytes = mmReader.read();
+                    if (bytes < 0) {
+                        throw new IOException("Connection closed by the device");
+                    }
+                    dispatch(mmReader.buffer(), bytes);
+                } catch (InterruptedException e) {
+                    if (LogLevel.info()) Log.i(TAG, "read interrupted, connection cancelled");
+                    break;
                 } catch (IOException e) {
-                    Log.e(TAG, "disconnected", e);
-                    connectionLost();
-                    // Start the service over to restart listening mode
-                    BluetoothSerialService.this.start();
+                    readFailed(e);
                     break;
                 }
             }
         }
 
         /**
-         * Write to the connected OutStream.
-         * @param buffer  The bytes to write
+         * Read what is available on a shared reader thread.
          */
-        public void write(byte[] buffer) throws IOException {
-            mmOutStream.write(buffer);
-            mmOutStream.flush();
+        @Override
+        public boolean poll() {
+            try {
+                // A full buffer is skipped instead of blocking the other connections on this thread
+                if (!mReadBuffer.hasCapacity() || mmReader.available() <= 0) {
+                    return false;
+                }
+                int bytes = mmReader.read();
+                if (bytes < 0) {
+                    throw new IOException("Connection closed by the device");
+                }
+                dispatch(mmReader.buffer(), bytes);
+                return bytes > 0;
+            } catch (InterruptedException e) {
+                // doesn't linger, so nothing waits to be interrupted
+                return false;
+            } catch (IOException e) {
+                mIoPool.unregister(this);
+                readFailed(e);
+                return false;
+            }
+        }
+
+        @Override
+        public void failed(RuntimeException e) {
+            readFailed(e);
+        }
+
+        private void dispatch(byte[] buffer, int bytes) {
+            if (bytes == 0) {
+                return;
+            }
+            int consumers = mConsumers;
+            mStatistics.recordRead(bytes, (consumers & (CONSUMER_SUBSCRIBER | CONSUMER_RAW)) != 0);
+
+            // Buffer the data here and only tell the handler if a subscriber is waiting for it
+            if ((consumers & CONSUMER_BUFFER) != 0) {
+                mReadBuffer.write(buffer, 0, bytes);
+                if ((consumers & CONSUMER_SUBSCRIBER) != 0) {
+                    mHandler.obtainMessage(MESSAGE_READ).sendToTarget();
+                }
+            }
+
+            // Send the raw bytestream to the UI Activity.
+            // We make a copy because the reader reuses its buffer. The copy goes into
+            // a pooled array of the buffer's size, arg1 says how much of it is data,
+            // and the handler gives the array back once it is done with it.
+            if ((consumers & CONSUMER_RAW) != 0) {
+                byte[] rawdata = mRawPool.acquire(buffer.length);
+                System.arraycopy(buffer, 0, rawdata, 0, bytes);
+                mHandler.obtainMessage(MESSAGE_READ_RAW, bytes, 0, rawdata).sendToTarget();
+            }
+        }
 
-            // Share the sent message back to the UI Activity
-            mHandler.obtainMessage(BluetoothSerialConnection.MESSAGE_WRITE, -1, -1, buffer).sendToTarget();
+        private void readFailed(Exception e) {
+            if (mmCancelled) {
+                // closed on purpose, whoever cancelled it already moved on,
+                // starting over here could cancel a newer connect
+                if (LogLevel.debug()) Log.d(TAG, "read of a cancelled connection ended");
+                return;
+            }
+            if (LogLevel.error()) Log.e(TAG, "disconnected", e);
+            // connectionLost() starts the service over, or schedules a reconnect
+            connectionLost(false);
+        }
+
+        /**
+         * Queue a write to the connected OutStream.
+         * @param buffer  The bytes to write
+         * @param callback  Called once the bytes were written or the write failed
+         */
+        public void write(byte[] buffer, BluetoothSerialWriter.Callback callback) {
+            mmWriter.write(buffer, callback);
         }
 
         public void cancel() {
+            mmCancelled = true;
+            if (mIoPool != null) {
+                mIoPool.unregister(this);
+            }
+
+            // fail writes that are still queued
+            mmWriter.close("Connection closed");
+
+            // wake the thread up if it is waiting for buffer capacity
+            interrupt();
+            closeTransport();
+        }
+
+        /**
+         * Close the transport without cancelling, the reader sees a lost connection.
+         */
+        void closeTransport() {
             try {
-                mmSocket.close();
+                mmTransport.close();
             } catch (IOException e) {
-                Log.e(TAG, "close() of connect socket failed", e);
+                if (LogLevel.error()) Log.e(TAG, "close() of connect transport failed", e);
             }
         }
     }
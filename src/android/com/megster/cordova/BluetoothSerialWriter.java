@@ -0,0 +1,286 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes to a connection's output stream on its own thread, or on a shared
+ * executor that drains the queue whenever there are writes in it.
+ *
+ * Writes are queued in a bounded queue so the caller never blocks on the
+ * socket. Small writes that are queued together are joined into batches of
+ * up to batchSize bytes, so a burst of small writes doesn't turn into one
+ * RFCOMM packet each. A batch is flushed as soon as the queue is empty, or
+ * after lingerMillis if a linger time is set. Each write's callback is
+ * called once its bytes were written to the stream.
+ */
+public class BluetoothSerialWriter {
+
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    public static final int DEFAULT_BATCH_SIZE = 990; // default RFCOMM MTU on Android
+    public static final int DEFAULT_LINGER_MILLIS = 0;
+
+    public interface Callback {
+        /**
+         * The bytes of the write were written to the stream.
+         * @param queued  The number of writes still waiting in the queue
+         */
+        void onWritten(int queued);
+
+        void onError(String message);
+    }
+
+    private static class Request {
+        final byte[] data;
+        final Callback callback;
+
+        Request(byte[] data, Callback callback) {
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    private final OutputStream out;
+    private final BlockingQueue<Request> queue;
+    private final int queueSize;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final byte[] batchBuffer;
+    private final List<Request> batch = new ArrayList<>();
+    private final Thread thread;
+    private final ConnectionStatistics statistics;
+
+    private Request carry;  // polled but didn't fit into the previous batch
+    private volatile String closedReason;
+
+    // with a shared executor, set while a drain is queued or running
+    private volatile Executor executor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public BluetoothSerialWriter(OutputStream out) {
+        this(out, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    public BluetoothSerialWriter(OutputStream out, int queueSize, int batchSize, long lingerMillis) {
+        this(out, queueSize, batchSize, lingerMillis, new ConnectionStatistics());
+    }
+
+    /**
+     * @param statistics  Written bytes and the queue depth are recorded here
+     */
+    public BluetoothSerialWriter(OutputStream out, int queueSize, int batchSize, long lingerMillis,
+                                 ConnectionStatistics statistics) {
+        this.out = out;
+        this.statistics = statistics;
+        this.queueSize = queueSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.batchBuffer = new byte[batchSize];
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "BluetoothSerialWriter");
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Write on a shared executor instead of an own thread. A linger time
+     * holds an executor thread for up to lingerMillis per batch.
+     */
+    public void start(Executor executor) {
+        this.executor = executor;
+        scheduleDrain();
+    }
+
+    /**
+     * Queue data to be written. Doesn't block, if the queue is full the
+     * callback gets an error right away.
+     * @return false if the write was rejected
+     */
+    public boolean write(byte[] data, Callback callback) {
+        if (closedReason != null) {
+            callback.onError(closedReason);
+            return false;
+        }
+        Request request = new Request(data, callback);
+        if (!queue.offer(request)) {
+            callback.onError("Write queue full (" + queueSize + " writes pending)");
+            return false;
+        }
+        statistics.recordQueueDepth(queue.size());
+        // closed while queueing, the writer thread may already be gone
+        if (closedReason != null && queue.remove(request)) {
+            callback.onError(closedReason);
+            return false;
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * @return the number of writes waiting to be written
+     */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stop the writer thread. Writes that haven't been written get an error.
+     */
+    public void close(String reason) {
+        closedReason = reason;
+        thread.interrupt();
+        // a drain fails what is still queued
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        Executor e = executor;
+        if (e != null && draining.compareAndSet(false, true)) {
+            try {
+                e.execute(drain);
+            } catch (RejectedExecutionException rejected) {
+                // the pool was shut down with the plugin
+                draining.set(false);
+                closedReason = "Connection closed";
+                failPending();
+            }
+        }
+    }
+
+    /**
+     * Write until the queue is empty, on the shared executor.
+     */
+    private void drain() {
+        try {
+            while (closedReason == null && (carry != null || !queue.isEmpty())) {
+                collectBatch();
+                writeBatch();
+            }
+        } catch (InterruptedException e) {
+            // the executor was shut down
+            closedReason = "Connection closed";
+        } catch (IOException e) {
+            if (closedReason == null) {
+                closedReason = "Write failed: " + e.getMessage();
+            }
+            failBatch();
+        }
+        if (closedReason != null) {
+            failPending();
+        }
+        draining.set(false);
+
+        // a write or close that came in after the loop ended needs another drain
+        if (!queue.isEmpty() || carry != null) {
+            scheduleDrain();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (closedReason == null) {
+                collectBatch();
+                writeBatch();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            if (closedReason == null) {
+                closedReason = "Write failed: " + e.getMessage();
+            }
+            failBatch();
+        }
+        failPending();
+    }
+
+    private void collectBatch() throws InterruptedException {
+        Request first = carry != null ? carry : queue.take();
+        carry = null;
+        batch.add(first);
+
+        // a large write goes out on its own
+        int length = first.data.length;
+        long deadline = System.currentTimeMillis() + lingerMillis;
+
+        while (length < batchSize) {
+            Request next;
+            long wait = deadline - System.currentTimeMillis();
+            if (wait > 0) {
+                next = queue.poll(wait, TimeUnit.MILLISECONDS);
+            } else {
+                next = queue.poll();
+            }
+            if (next == null) {
+                break;
+            }
+            if (length + next.data.length > batchSize) {
+                carry = next;
+                break;
+            }
+            batch.add(next);
+            length += next.data.length;
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        int length = 0;
+        if (batch.size() == 1) {
+            length = batch.get(0).data.length;
+            out.write(batch.get(0).data);
+        } else {
+            for (Request request : batch) {
+                System.arraycopy(request.data, 0, batchBuffer, length, request.data.length);
+                length += request.data.length;
+            }
+            out.write(batchBuffer, 0, length);
+        }
+        out.flush();
+        statistics.recordWrite(length, batch.size());
+
+        int queued = queue.size() + (carry != null ? 1 : 0);
+        for (Request request : batch) {
+            request.callback.onWritten(queued);
+        }
+        batch.clear();
+    }
+
+    private void failBatch() {
+        for (Request request : batch) {
+            request.callback.onError(closedReason);
+        }
+        batch.clear();
+    }
+
+    private void failPending() {
+        failBatch();
+        if (carry != null) {
+            carry.callback.onError(closedReason);
+            carry = null;
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.callback.onError(closedReason);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A transport over an RFCOMM BluetoothSocket.
+ *
+ * connect() looks up the service channel with SDP and falls back to a
+ * direct channel, 1 by default, if that fails. Whichever worked is
+ * recorded in the ConnectStrategyCache and tried first on the next
+ * connect, which saves an SDP timeout for devices that need the fallback.
+ */
+public class BluetoothSocketTransport implements SerialTransport {
+
+    private static final String TAG = "BluetoothSerialService";
+
+    // Well known SPP UUID
+    private static final UUID UUID_SPP = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    public static final int DEFAULT_CHANNEL = 1;
+
+    private final BluetoothDevice device;
+    private final boolean secure;
+    private final UUID uuid;
+    private final int channel;
+    private final ConnectStrategyCache strategies;
+    private volatile BluetoothSocket socket;
+    // set by close(), a connect in progress stops instead of trying the next strategy
+    private volatile boolean closed;
+
+    /**
+     * @param device  The device to connect to
+     * @param secure  Socket Security type - Secure (true) , Insecure (false)
+     * @param uuid  The service to look up with SDP
+     * @param channel  The RFCOMM channel to try without SDP
+     * @param strategies  Which strategy worked before, shared by the connections
+     */
+    public BluetoothSocketTransport(BluetoothDevice device, boolean secure, UUID uuid, int channel,
+                                    ConnectStrategyCache strategies) {
+        this.device = device;
+        this.secure = secure;
+        this.uuid = uuid != null ? uuid : UUID_SPP;
+        this.channel = channel;
+        this.strategies = strategies;
+    }
+
+    /**
+     * Wrap a socket that is already connected, e.g. one accepted by a server socket.
+     * connect() isn't needed and can't reconnect it.
+     */
+    public BluetoothSocketTransport(BluetoothSocket connectedSocket, boolean secure) {
+        this.device = connectedSocket.getRemoteDevice();
+        this.secure = secure;
+        this.socket = connectedSocket;
+        this.uuid = UUID_SPP;
+        this.channel = DEFAULT_CHANNEL;
+        this.strategies = new ConnectStrategyCache(null);
+    }
+
+    public String getSocketType() {
+        return secure ? "Secure" : "Insecure";
+    }
+
+    @Override
+    public void connect() throws IOException {
+        // Always cancel discovery because it will slow down a connection
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter != null) {
+            adapter.cancelDiscovery();
+        }
+
+        // a reconnect uses the transport again after its last connection was closed
+        closed = false;
+
+        String key = ConnectStrategyCache.device(device.getAddress(), secure);
+        String sdp = ConnectStrategyCache.sdp(uuid.toString());
+        String direct = ConnectStrategyCache.channel(channel);
+        IOException failure = null;
+        for (String strategy : strategies.order(key, Arrays.asList(sdp, direct))) {
+            if (closed) {
+                throw new IOException("Connect cancelled");
+            }
+            long started = System.currentTimeMillis();
+            try {
+                if (strategy.equals(sdp)) {
+                    connectSdp();
+                } else {
+                    // Some 4.1 devices have problems, try an alternative way to connect
+                    // See https://github.com/don/BluetoothSerial/issues/89
+                    connectChannel();
+                }
+                strategies.recordSuccess(key, strategy, System.currentTimeMillis() - started);
+                if (LogLevel.info()) Log.i(TAG,"Connected with " + strategy);
+                return;
+            } catch (IOException e) {
+                if (closed) {
+                    // our own close(), not a sign that the strategy doesn't work
+                    throw e;
+                }
+                if (LogLevel.error()) Log.e(TAG, strategy + ": " + e.toString());
+                strategies.recordFailure(key, strategy);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private void connectSdp() throws IOException {
+        // This is a blocking call and will only return on a successful connection or an exception
+        if (LogLevel.info()) Log.i(TAG,"Connecting to socket...");
+        if (secure) {
+            socket = device.createRfcommSocketToServiceRecord(uuid);
+        } else {
+            socket = device.createInsecureRfcommSocketToServiceRecord(uuid);
+        }
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    private void connectChannel() throws IOException {
+        if (LogLevel.info()) Log.i(TAG,"Trying channel " + channel + "...");
+        try {
+            socket = (BluetoothSocket) device.getClass().getMethod("createRfcommSocket", new Class[] {int.class}).invoke(device, channel);
+        } catch (Exception e) {
+            throw new IOException("Fallback socket not available: " + e);
+        }
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeSocket();
+        } catch (IOException e) {
+            if (LogLevel.error()) Log.e(TAG, "unable to close() " + getSocketType() + " socket during connection failure", e);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        closeSocket();
+    }
+
+    private void closeSocket() throws IOException {
+        BluetoothSocket s = socket;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return device.getName();
+    }
+}
@@ -0,0 +1,72 @@
+package com.megster.cordova;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reusable arrays for the chunks the reader passes to raw subscribers.
+ *
+ * The arrays have a fixed capacity, the size of the reader's buffer, and
+ * are passed along with the number of bytes in them, so every chunk fits
+ * whatever its length. The reader takes an array and the dispatch thread
+ * gives it back once the chunk was framed, batched or encoded for the
+ * bridge. Arrays that are too small after the reader's buffer grew are
+ * dropped and replaced by bigger ones.
+ *
+ * Taking and giving back don't allocate or lock, taking is an atomic swap
+ * and giving back an ordered store on a slot, usually the first. When all arrays are out, e.g. while the
+ * dispatch thread is behind, a new one is made and kept later if there is
+ * a free slot.
+ */
+public class ByteArrayPool {
+
+    public static final int DEFAULT_MAX_ARRAYS = 8;
+
+    private final AtomicReferenceArray<byte[]> slots;
+
+    public ByteArrayPool() {
+        this(DEFAULT_MAX_ARRAYS);
+    }
+
+    /**
+     * @param maxArrays  The most arrays kept for reuse
+     */
+    public ByteArrayPool(int maxArrays) {
+        slots = new AtomicReferenceArray<>(maxArrays);
+    }
+
+    /**
+     * @return an array of at least capacity bytes, its content is undefined
+     */
+    public byte[] acquire(int capacity) {
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                byte[] array = slots.getAndSet(i, null);
+                if (array != null && array.length >= capacity) {
+                    return array;
+                }
+                // too small for the reader's buffer now, dropped
+            }
+        }
+        return new byte[capacity];
+    }
+
+    /**
+     * Give an array back. The caller must not use it afterwards.
+     *
+     * Only one thread may give arrays back, for a connection that's the
+     * dispatch thread. Taking only empties slots, so a slot seen empty here
+     * stays empty and an ordered store is enough to fill it.
+     */
+    public void release(byte[] array) {
+        if (array == null) {
+            return;
+        }
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == null) {
+                slots.lazySet(i, array);
+                return;
+            }
+        }
+        // dropped if the pool is full
+    }
+}
@@ -0,0 +1,271 @@
+package com.megster.cordova;
+
+/**
+ * Growable circular buffer for the bytes received from a device.
+ *
+ * Consuming data from the front is O(1), the backing array only grows
+ * (doubling) until it reaches the high-water mark. What happens when more
+ * data arrives than the high-water mark allows is decided by the
+ * {@link OverflowPolicy}.
+ *
+ * All methods are synchronized, the buffer is filled by the reader side
+ * and drained by the plugin side.
+ */
+public class ByteRingBuffer {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,    // discard the oldest buffered bytes to make room
+        DROP_NEWEST,    // discard the incoming bytes that don't fit
+        BACKPRESSURE    // keep everything, the reader waits in awaitCapacity()
+    }
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    public static final int DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+
+    private byte[] data;
+    private int head;         // index of the first buffered byte in data
+    private int size;         // number of buffered bytes
+    private long position;    // total bytes ever removed from the front
+    private long dropped;     // total bytes discarded because of overflow
+    private int peak;         // most bytes ever buffered at once
+
+    private int highWaterMark;
+    private OverflowPolicy overflowPolicy;
+
+    public ByteRingBuffer() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_HIGH_WATER_MARK, OverflowPolicy.DROP_OLDEST);
+    }
+
+    public ByteRingBuffer(int initialCapacity, int highWaterMark, OverflowPolicy overflowPolicy) {
+        if (highWaterMark <= 0) {
+            throw new IllegalArgumentException("highWaterMark must be positive");
+        }
+        this.data = new byte[Math.max(1, Math.min(initialCapacity, highWaterMark))];
+        this.highWaterMark = highWaterMark;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public synchronized void configure(int highWaterMark, OverflowPolicy overflowPolicy) {
+        if (highWaterMark <= 0) {
+            throw new IllegalArgumentException("highWaterMark must be positive");
+        }
+        this.highWaterMark = highWaterMark;
+        this.overflowPolicy = overflowPolicy;
+        if (size > highWaterMark && overflowPolicy != OverflowPolicy.BACKPRESSURE) {
+            // what no longer fits is lost like any other overflow
+            dropped += size - highWaterMark;
+            discard(size - highWaterMark);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Append bytes to the end of the buffer.
+     * @return the number of bytes from src that were stored
+     */
+    public synchronized int write(byte[] src, int offset, int length) {
+        if (length <= 0) {
+            return 0;
+        }
+
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                int room = Math.max(0, highWaterMark - size);
+                if (length > room) {
+                    dropped += length - room;
+                    length = room;
+                }
+                break;
+            case DROP_OLDEST:
+                if (length > highWaterMark) {
+                    // only the tail of src can survive
+                    dropped += length - highWaterMark;
+                    offset += length - highWaterMark;
+                    length = highWaterMark;
+                }
+                if (size + length > highWaterMark) {
+                    int excess = size + length - highWaterMark;
+                    dropped += excess;
+                    discard(excess);
+                }
+                break;
+            case BACKPRESSURE:
+                // the reader is expected to wait in awaitCapacity(), whatever
+                // was already in flight is accepted past the high-water mark
+                break;
+        }
+
+        if (length == 0) {
+            return 0;
+        }
+
+        ensureCapacity(size + length);
+
+        int tail = (head + size) % data.length;
+        int first = Math.min(length, data.length - tail);
+        System.arraycopy(src, offset, data, tail, first);
+        if (first < length) {
+            System.arraycopy(src, offset + first, data, 0, length - first);
+        }
+        size += length;
+        if (size > peak) {
+            peak = size;
+        }
+        return length;
+    }
+
+    public synchronized int write(byte[] src) {
+        return write(src, 0, src.length);
+    }
+
+    /**
+     * Number of bytes that can be read.
+     */
+    public synchronized int available() {
+        return size;
+    }
+
+    /**
+     * Byte at the given offset from the front of the buffer.
+     */
+    public synchronized byte get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return data[(head + index) % data.length];
+    }
+
+    /**
+     * Copy bytes from the front of the buffer without consuming them.
+     */
+    public synchronized int peek(byte[] dst, int offset, int length) {
+        return peek(0, dst, offset, length);
+    }
+
+    /**
+     * Copy bytes starting at index without consuming them.
+     * @return the number of bytes copied
+     */
+    public synchronized int peek(int index, byte[] dst, int offset, int length) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        length = Math.min(length, size - index);
+        int start = (head + index) % data.length;
+        int first = Math.min(length, data.length - start);
+        System.arraycopy(data, start, dst, offset, first);
+        if (first < length) {
+            System.arraycopy(data, 0, dst, offset + first, length - first);
+        }
+        return length;
+    }
+
+    /**
+     * Remove up to length bytes from the front of the buffer and return them.
+     */
+    public synchronized byte[] read(int length) {
+        byte[] out = new byte[Math.min(length, size)];
+        peek(out, 0, out.length);
+        skip(out.length);
+        return out;
+    }
+
+    /**
+     * Remove all buffered bytes and return them.
+     */
+    public synchronized byte[] readAll() {
+        return read(size);
+    }
+
+    /**
+     * Remove up to length bytes from the front of the buffer.
+     * @return the number of bytes removed
+     */
+    public synchronized int skip(int length) {
+        length = Math.min(Math.max(length, 0), size);
+        discard(length);
+        return length;
+    }
+
+    public synchronized void clear() {
+        discard(size);
+    }
+
+    /**
+     * Total number of bytes ever removed from the front of the buffer. Adding
+     * available() gives the stream position of the end of the buffer.
+     */
+    public synchronized long position() {
+        return position;
+    }
+
+    /**
+     * Total number of bytes discarded by the overflow policy.
+     */
+    public synchronized long droppedBytes() {
+        return dropped;
+    }
+
+    /**
+     * The most bytes that were ever in the buffer at once.
+     */
+    public synchronized int peakSize() {
+        return peak;
+    }
+
+    /**
+     * @return false if a reader should wait, the same condition awaitCapacity() blocks on
+     */
+    public synchronized boolean hasCapacity() {
+        return overflowPolicy != OverflowPolicy.BACKPRESSURE || size < highWaterMark;
+    }
+
+    /**
+     * Block while the buffer is at or above the high-water mark and the policy
+     * is BACKPRESSURE. Returns immediately for the other policies.
+     */
+    public synchronized void awaitCapacity() throws InterruptedException {
+        while (overflowPolicy == OverflowPolicy.BACKPRESSURE && size >= highWaterMark) {
+            wait();
+        }
+    }
+
+    private void discard(int length) {
+        if (length <= 0) {
+            return;
+        }
+        head = (head + length) % data.length;
+        size -= length;
+        position += length;
+        if (size == 0) {
+            head = 0;
+        }
+        notifyAll();
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= data.length) {
+            return;
+        }
+        int capacity = data.length;
+        while (capacity < required) {
+            capacity = capacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : capacity * 2;
+        }
+        if (overflowPolicy != OverflowPolicy.BACKPRESSURE) {
+            capacity = Math.max(required, Math.min(capacity, highWaterMark));
+        }
+
+        byte[] grown = new byte[capacity];
+        peek(grown, 0, size);
+        data = grown;
+        head = 0;
+    }
+}
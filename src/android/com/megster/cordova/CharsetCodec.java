@@ -0,0 +1,117 @@
+package com.megster.cordova;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Converts between the bytes of a connection and Strings with one charset.
+ *
+ * The decoder and encoder are created once and reused together with their
+ * scratch buffers. Decoding straight from a {@link ByteRingBuffer} leaves
+ * an incomplete multi-byte sequence at the end in the buffer, so characters
+ * split across two reads come out intact on the next call.
+ *
+ * When decoding, the lock of the ring buffer is always taken before the
+ * lock of the codec.
+ */
+public class CharsetCodec {
+
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+
+    private ByteBuffer decodeInput = ByteBuffer.allocate(1024);
+    private CharBuffer decodeOutput = CharBuffer.allocate(1024);
+    private ByteBuffer encodeOutput = ByteBuffer.allocate(1024);
+
+    public CharsetCodec(Charset charset) {
+        this.charset = charset;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public Charset charset() {
+        return charset;
+    }
+
+    /**
+     * Decode and consume up to length bytes from the front of the buffer.
+     *
+     * @param complete  true if the bytes form a complete message, e.g. a frame
+     *                  ending in a delimiter. Otherwise an incomplete character
+     *                  at the end is left in the buffer.
+     */
+    public String decode(ByteRingBuffer buffer, int length, boolean complete) {
+        synchronized (buffer) {
+            synchronized (this) {
+                length = Math.min(length, buffer.available());
+                if (length == 0) {
+                    return "";
+                }
+
+                if (decodeInput.capacity() < length) {
+                    decodeInput = ByteBuffer.allocate(length);
+                }
+                decodeInput.clear();
+                buffer.peek(decodeInput.array(), 0, length);
+                decodeInput.limit(length);
+
+                String result = decode(decodeInput, complete);
+                buffer.skip(decodeInput.position());
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Decode a complete message.
+     */
+    public synchronized String decode(byte[] bytes, int offset, int length) {
+        return decode(ByteBuffer.wrap(bytes, offset, length), true);
+    }
+
+    /**
+     * Encode a String. The returned array has exactly the encoded length.
+     */
+    public synchronized byte[] encode(String s) {
+        int maxLength = (int) Math.ceil(s.length() * (double) encoder.maxBytesPerChar());
+        if (encodeOutput.capacity() < maxLength) {
+            encodeOutput = ByteBuffer.allocate(maxLength);
+        }
+        encodeOutput.clear();
+
+        encoder.reset();
+        CharBuffer input = CharBuffer.wrap(s);
+        encoder.encode(input, encodeOutput, true);
+        encoder.flush(encodeOutput);
+
+        byte[] bytes = new byte[encodeOutput.position()];
+        System.arraycopy(encodeOutput.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private String decode(ByteBuffer input, boolean complete) {
+        int maxLength = (int) Math.ceil(input.remaining() * (double) decoder.maxCharsPerByte());
+        if (decodeOutput.capacity() < maxLength) {
+            decodeOutput = CharBuffer.allocate(maxLength);
+        }
+        decodeOutput.clear();
+
+        decoder.reset();
+        decoder.decode(input, decodeOutput, complete);
+        if (complete) {
+            decoder.flush(decodeOutput);
+        }
+
+        decodeOutput.flip();
+        return decodeOutput.toString();
+    }
+}
@@ -0,0 +1,129 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the input stream of a connection in chunks for ConnectedThread.
+ *
+ * The read buffer has a fixed size, or is adaptive: it doubles when reads
+ * keep filling it, e.g. during a log dump at full SPP rate, and halves when
+ * reads stay small for a while, e.g. a sensor sending 10 byte packets.
+ *
+ * With minBytes a read shorter than that waits up to lingerMillis for more
+ * bytes before the chunk is returned, so many tiny reads become one message
+ * to the dispatch thread. Only bytes the stream says are available are read
+ * while lingering, a blocking read can't be given a deadline, so the stream
+ * is polled every millisecond.
+ */
+public class ChunkReader {
+
+    public static final int DEFAULT_SIZE = 1024;
+    public static final int MIN_SIZE = 64;
+    public static final int MAX_SIZE = 64 * 1024;
+
+    // grow after this many full reads in a row, shrink after this many small ones
+    private static final int GROW_AFTER = 2;
+    private static final int SHRINK_AFTER = 32;
+
+    private final InputStream in;
+    private final boolean adaptive;
+    private final int minBytes;
+    private final int lingerMillis;
+    private final int smallestSize;
+    private byte[] buffer;
+    private int fullReads;
+    private int smallReads;
+    private int lastBytes;
+
+    /**
+     * @param size  Size of the read buffer, the initial size if adaptive
+     * @param adaptive  Grow and shrink the buffer with the size of the reads
+     * @param minBytes  Chunks shorter than this wait for more bytes, 0 to return every read
+     * @param lingerMillis  How long a short chunk waits for more bytes
+     */
+    public ChunkReader(InputStream in, int size, boolean adaptive, int minBytes, int lingerMillis) {
+        this.in = in;
+        this.adaptive = adaptive;
+        this.minBytes = lingerMillis > 0 ? minBytes : 0;
+        this.lingerMillis = lingerMillis;
+        this.smallestSize = Math.max(MIN_SIZE, this.minBytes);
+        this.buffer = new byte[Math.max(size, this.minBytes)];
+    }
+
+    /**
+     * @return the array the last chunk was read into, valid until the next read
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Read the next chunk into buffer().
+     * @return the length of the chunk, or -1 at the end of the stream
+     * @throws InterruptedException if the thread was interrupted while lingering
+     */
+    public int read() throws IOException, InterruptedException {
+        // the caller is done with the last chunk, so the buffer can be replaced now
+        if (adaptive && lastBytes > 0) {
+            resize(lastBytes);
+        }
+
+        int bytes = in.read(buffer, 0, buffer.length);
+        if (bytes > 0 && bytes < minBytes) {
+            bytes = linger(bytes);
+        }
+        lastBytes = bytes;
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes that can be read without blocking
+     */
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    public int size() {
+        return buffer.length;
+    }
+
+    private int linger(int bytes) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + lingerMillis * 1000000L;
+        while (bytes < minBytes) {
+            int available = in.available();
+            if (available > 0) {
+                int n = in.read(buffer, bytes, Math.min(available, buffer.length - bytes));
+                if (n < 0) {
+                    // the next read reports the end of the stream
+                    break;
+                }
+                bytes += n;
+            } else if (System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            } else {
+                break;
+            }
+        }
+        return bytes;
+    }
+
+    private void resize(int bytes) {
+        if (bytes == buffer.length) {
+            smallReads = 0;
+            if (++fullReads >= GROW_AFTER && buffer.length < MAX_SIZE) {
+                buffer = new byte[Math.min(buffer.length * 2, MAX_SIZE)];
+                fullReads = 0;
+            }
+        } else if (bytes <= buffer.length / 4) {
+            fullReads = 0;
+            if (++smallReads >= SHRINK_AFTER && buffer.length > smallestSize) {
+                buffer = new byte[Math.max(buffer.length / 2, smallestSize)];
+                smallReads = 0;
+            }
+        } else {
+            fullReads = 0;
+            smallReads = 0;
+        }
+    }
+}
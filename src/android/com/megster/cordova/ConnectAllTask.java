@@ -0,0 +1,242 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Connects to many devices for the connectAll action.
+ *
+ * Up to concurrency connects run at the same time, devices with a good
+ * connect history in the ConnectStrategyCache first. An attempt that isn't
+ * connected after the timeout is cancelled, counts as failed and its
+ * connection is dropped. Each device is reported on the
+ * callback as soon as it finishes, followed by a done result once all of
+ * them did. The callback stays open and reports later disconnects and
+ * reconnects of these devices.
+ *
+ * Everything runs on the looper the connections dispatch on, so the
+ * connection events and the timeouts don't need locking.
+ */
+class ConnectAllTask {
+
+    static final int DEFAULT_CONCURRENCY = 3;
+    static final int DEFAULT_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * The connections of the plugin by address.
+     */
+    interface Connections {
+        /**
+         * Look up the connection for an address, creating it if needed.
+         */
+        BluetoothSerialConnection obtain(String address);
+
+        /**
+         * Forget a connection that was stopped, unless another one took its address.
+         */
+        void remove(BluetoothSerialConnection connection);
+    }
+
+    private final Handler handler;
+    private final BluetoothAdapter adapter;
+    private final Connections connections;
+    private final ConnectStrategyCache history;
+    private final JSONObject options;
+    private final boolean secure;
+    private final int concurrency;
+    private final long timeoutMillis;
+    private final CallbackContext callbackContext;
+
+    private final ArrayDeque<String> queue;
+    private final int total;
+    private int running;
+    private int completed;
+    private boolean done;
+    private final JSONArray connected = new JSONArray();
+    private final JSONArray failed = new JSONArray();
+
+    /**
+     * @param options  concurrency, timeout and secure, the rest are connect options for every device
+     */
+    ConnectAllTask(Looper looper, BluetoothAdapter adapter, Connections connections, ConnectStrategyCache history,
+                   List<String> addresses, JSONObject options, CallbackContext callbackContext) {
+        this.handler = new Handler(looper);
+        this.adapter = adapter;
+        this.connections = connections;
+        this.history = history;
+        this.options = options;
+        this.secure = options.optBoolean("secure", true);
+        this.concurrency = options.optInt("concurrency", DEFAULT_CONCURRENCY);
+        this.timeoutMillis = options.optLong("timeout", DEFAULT_TIMEOUT_MILLIS);
+        this.callbackContext = callbackContext;
+        if (concurrency <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency or timeout");
+        }
+
+        this.queue = new ArrayDeque<>(history.orderDevices(addresses, secure));
+        this.total = queue.size();
+    }
+
+    void start() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                startNext();
+            }
+        });
+    }
+
+    private void startNext() {
+        while (running < concurrency && !queue.isEmpty()) {
+            connect(queue.poll());
+        }
+        // an attempt that finishes right away calls this again from connect()
+        if (running == 0 && queue.isEmpty() && !done) {
+            done = true;
+            JSONObject json = new JSONObject();
+            try {
+                json.put("state", "done");
+                json.put("connected", connected);
+                json.put("failed", failed);
+            } catch (JSONException e) {
+                // can't happen with these keys and values
+            }
+            send(json);
+        }
+    }
+
+    private void connect(String address) {
+        running++;
+        final Attempt attempt = new Attempt(address);
+        BluetoothDevice device;
+        try {
+            device = adapter.getRemoteDevice(address);
+        } catch (IllegalArgumentException e) {
+            attempt.finish(false, "Invalid address " + address);
+            return;
+        }
+
+        BluetoothSerialConnection conn = connections.obtain(address);
+        attempt.connection = conn;
+        if (conn.isConnected()) {
+            attempt.finish(true, null);
+            return;
+        }
+
+        handler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                attempt.timeout();
+            }
+        }, attempt, SystemClock.uptimeMillis() + timeoutMillis);
+
+        try {
+            conn.connect(device, secure, options, attempt);
+        } catch (IllegalArgumentException e) {
+            attempt.finish(false, e.getMessage());
+        }
+    }
+
+    private void send(JSONObject json) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private class Attempt implements BluetoothSerialConnection.ConnectListener {
+        private final String address;
+        private final long started = SystemClock.elapsedRealtime();
+        private BluetoothSerialConnection connection;
+        private boolean finished;
+        private boolean timedOut;
+
+        Attempt(String address) {
+            this.address = address;
+        }
+
+        /**
+         * The first connect is over, report it and start the next device.
+         */
+        void finish(boolean success, String error) {
+            finished = true;
+            handler.removeCallbacksAndMessages(this);
+            long millis = SystemClock.elapsedRealtime() - started;
+            // the transport records the strategies it tried in the history
+            if (success) {
+                connected.put(address);
+            } else {
+                failed.put(address);
+            }
+            completed++;
+            running--;
+            report(success ? "connected" : "failed", error, millis);
+            startNext();
+        }
+
+        void timeout() {
+            if (!finished) {
+                timedOut = true;
+                // the cancelled connect reports a lost connection, which is ignored
+                connection.stop();
+                connections.remove(connection);
+                history.recordTimeout(ConnectStrategyCache.device(address, secure));
+                finish(false, "Connect timed out");
+            }
+        }
+
+        private void report(String state, String error, long millis) {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("address", address);
+                json.put("state", state);
+                if (error != null) {
+                    json.put("error", error);
+                }
+                if (millis >= 0) {
+                    json.put("millis", millis);
+                }
+                json.put("completed", completed);
+                json.put("total", total);
+            } catch (JSONException e) {
+                // can't happen with these keys and values
+            }
+            send(json);
+        }
+
+        @Override
+        public void onConnected() {
+            if (!finished) {
+                finish(true, null);
+            } else {
+                // connected again after a reconnect
+                report("connected", null, -1);
+            }
+        }
+
+        @Override
+        public void onReconnecting(int attempt, int delay) {
+            report("reconnecting", null, -1);
+        }
+
+        @Override
+        public void onConnectionLost(String error) {
+            if (!finished) {
+                finish(false, error);
+            } else if (!timedOut) {
+                report("disconnected", error, -1);
+            }
+        }
+    }
+}
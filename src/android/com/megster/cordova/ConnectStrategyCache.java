@@ -0,0 +1,279 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which way of opening a socket last worked for each device, so the next
+ * connect tries it first instead of paying for an SDP lookup that is
+ * known to fail.
+ *
+ * A strategy is a string such as "sdp:00001101-0000-1000-8000-00805f9b34fb"
+ * for a service record lookup, or "channel:1" for a direct RFCOMM channel.
+ * Devices are keyed by the caller, which includes the socket security in
+ * the key. For every strategy the successes, failures and connect time are
+ * kept too, along with connectAll attempts of the device that timed out.
+ * The cache is saved to its Store after every change, as JSON, so it
+ * survives restarts. Only the most recently used MAX_DEVICES devices are
+ * kept.
+ */
+public class ConnectStrategyCache {
+
+    public static final int MAX_DEVICES = 64;
+
+    /**
+     * Where the cache is kept between restarts.
+     */
+    public interface Store {
+        /**
+         * @return the JSON saved last, or null
+         */
+        String load();
+
+        void save(String json);
+    }
+
+    public static String sdp(String uuid) {
+        return "sdp:" + uuid;
+    }
+
+    public static String channel(int channel) {
+        return "channel:" + channel;
+    }
+
+    /**
+     * @return the key of a device, secure and insecure sockets are kept apart
+     */
+    public static String device(String address, boolean secure) {
+        return address + (secure ? "" : " insecure");
+    }
+
+    private static class Stats {
+        int successes;
+        int failures;
+        long connectMillis;
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("successes", successes);
+            json.put("failures", failures);
+            json.put("connectMillis", connectMillis);
+            return json;
+        }
+
+        static Stats fromJSON(JSONObject json) {
+            Stats stats = new Stats();
+            stats.successes = json.optInt("successes");
+            stats.failures = json.optInt("failures");
+            stats.connectMillis = json.optLong("connectMillis");
+            return stats;
+        }
+    }
+
+    private static class Entry {
+        String preferred;
+        int timeouts;
+        final Map<String, Stats> strategies = new LinkedHashMap<>();
+
+        /**
+         * A device without history counts as half successful.
+         */
+        double successRate() {
+            int successes = 0;
+            int attempts = timeouts;
+            for (Stats stats : strategies.values()) {
+                successes += stats.successes;
+                attempts += stats.successes + stats.failures;
+            }
+            return attempts == 0 ? 0.5 : (double) successes / attempts;
+        }
+
+        long meanConnectMillis() {
+            int successes = 0;
+            long connectMillis = 0;
+            for (Stats stats : strategies.values()) {
+                successes += stats.successes;
+                connectMillis += stats.connectMillis;
+            }
+            return successes == 0 ? Long.MAX_VALUE : connectMillis / successes;
+        }
+
+        Stats stats(String strategy) {
+            Stats stats = strategies.get(strategy);
+            if (stats == null) {
+                stats = new Stats();
+                strategies.put(strategy, stats);
+            }
+            return stats;
+        }
+    }
+
+    private final Store store;
+
+    // in access order, the eldest is the least recently connected device
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_DEVICES;
+        }
+    };
+
+    /**
+     * @param store  Where to load and save the cache, or null to only keep it in memory
+     */
+    public ConnectStrategyCache(Store store) {
+        this.store = store;
+        if (store != null) {
+            load(store.load());
+        }
+    }
+
+    /**
+     * @return the strategies to try, the one that worked last time first.
+     *         The others keep their order.
+     */
+    public synchronized List<String> order(String device, List<String> strategies) {
+        Entry entry = entries.get(device);
+        List<String> ordered = new ArrayList<>(strategies);
+        if (entry != null && entry.preferred != null && ordered.remove(entry.preferred)) {
+            ordered.add(0, entry.preferred);
+        }
+        return ordered;
+    }
+
+    public synchronized void recordSuccess(String device, String strategy, long connectMillis) {
+        Entry entry = entry(device);
+        Stats stats = entry.stats(strategy);
+        stats.successes++;
+        stats.connectMillis += connectMillis;
+        entry.preferred = strategy;
+        save();
+    }
+
+    public synchronized void recordFailure(String device, String strategy) {
+        Entry entry = entry(device);
+        entry.stats(strategy).failures++;
+        if (strategy.equals(entry.preferred)) {
+            entry.preferred = null;
+        }
+        save();
+    }
+
+    /**
+     * A connect gave up before any strategy succeeded or failed.
+     */
+    public synchronized void recordTimeout(String device) {
+        entry(device).timeouts++;
+        save();
+    }
+
+    /**
+     * Devices are ordered by their share of successful connects, then by
+     * their mean connect time. A device without history goes after devices
+     * that reliably connect and before ones that reliably fail.
+     * @return the addresses, the ones most likely to connect quickly first.
+     *         Addresses that compare equal keep their order.
+     */
+    public synchronized List<String> orderDevices(List<String> addresses, boolean secure) {
+        final Map<String, Double> rates = new HashMap<>();
+        final Map<String, Long> millis = new HashMap<>();
+        for (String address : addresses) {
+            Entry entry = entries.get(device(address, secure));
+            if (entry == null) {
+                entry = new Entry();
+            }
+            rates.put(address, entry.successRate());
+            millis.put(address, entry.meanConnectMillis());
+        }
+
+        List<String> ordered = new ArrayList<>(addresses);
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int byRate = Double.compare(rates.get(b), rates.get(a));
+                if (byRate != 0) {
+                    return byRate;
+                }
+                return Long.compare(millis.get(a), millis.get(b));
+            }
+        });
+        return ordered;
+    }
+
+    private Entry entry(String device) {
+        Entry entry = entries.get(device);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(device, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return every device with its preferred strategy and the stats of each strategy
+     */
+    public synchronized JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Entry> device : entries.entrySet()) {
+            JSONObject strategies = new JSONObject();
+            for (Map.Entry<String, Stats> strategy : device.getValue().strategies.entrySet()) {
+                strategies.put(strategy.getKey(), strategy.getValue().toJSON());
+            }
+            JSONObject entry = new JSONObject();
+            entry.put("preferred", device.getValue().preferred);
+            entry.put("timeouts", device.getValue().timeouts);
+            entry.put("strategies", strategies);
+            json.put(device.getKey(), entry);
+        }
+        return json;
+    }
+
+    private void load(String saved) {
+        if (saved == null) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(saved);
+            Iterator<String> devices = json.keys();
+            while (devices.hasNext()) {
+                String device = devices.next();
+                JSONObject entryJson = json.getJSONObject(device);
+                Entry entry = new Entry();
+                entry.preferred = entryJson.optString("preferred", null);
+                entry.timeouts = entryJson.optInt("timeouts");
+                JSONObject strategies = entryJson.optJSONObject("strategies");
+                if (strategies != null) {
+                    Iterator<String> names = strategies.keys();
+                    while (names.hasNext()) {
+                        String name = names.next();
+                        entry.strategies.put(name, Stats.fromJSON(strategies.getJSONObject(name)));
+                    }
+                }
+                entries.put(device, entry);
+            }
+        } catch (JSONException e) {
+            // a damaged cache only costs the slow path once per device
+            entries.clear();
+        }
+    }
+
+    private void save() {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.save(toJSON().toString());
+        } catch (JSONException e) {
+            // can't happen with these keys and values
+        }
+    }
+}
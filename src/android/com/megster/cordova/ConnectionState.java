@@ -0,0 +1,176 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The state of one connection, changed without locks.
+ *
+ * Every change is a compare-and-set on an immutable snapshot, so a
+ * transition that isn't allowed from the current state, such as a late
+ * lost event after the app disconnected, is dropped instead of
+ * overwriting the newer state. Each transition that happens is published
+ * to the listener with its time, reason and a sequence number. Listeners
+ * can get events from different threads, and the sequence number gives
+ * their order.
+ */
+public class ConnectionState {
+
+    public enum State {
+        IDLE("idle"),
+        CONNECTING("connecting"),
+        CONNECTED("connected"),
+        RECONNECTING("reconnecting"),
+        LOST("lost"),
+        CLOSED("closed");
+
+        private final String name;
+
+        State(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        boolean canBecome(State next) {
+            switch (this) {
+                case IDLE:
+                    return next == CONNECTING;
+                case CONNECTING:
+                    return next == CONNECTED || next == LOST || next == CLOSED;
+                case CONNECTED:
+                    return next == RECONNECTING || next == LOST || next == CLOSED;
+                case RECONNECTING:
+                    // every reconnect attempt is a transition of its own
+                    return next == RECONNECTING || next == CONNECTED || next == LOST || next == CLOSED;
+                case LOST:
+                    return next == CONNECTING || next == CLOSED;
+                case CLOSED:
+                    return next == CONNECTING;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * A transition that happened.
+     */
+    public static class Event {
+        private final String address;
+        private final State from;
+        private final State to;
+        private final long sequence;
+        private final long timestamp;
+        private final String reason;
+
+        Event(String address, State from, State to, long sequence, long timestamp, String reason) {
+            this.address = address;
+            this.from = from;
+            this.to = to;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.reason = reason;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public State getFrom() {
+            return from;
+        }
+
+        public State getTo() {
+            return to;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("address", address);
+            json.put("state", to.getName());
+            json.put("previous", from.getName());
+            json.put("sequence", sequence);
+            json.put("timestamp", timestamp);
+            if (reason != null) {
+                json.put("reason", reason);
+            }
+            return json;
+        }
+    }
+
+    /**
+     * Gets every transition, on the thread that made it.
+     */
+    public interface Listener {
+        void onTransition(Event event);
+    }
+
+    private static class Snapshot {
+        final State state;
+        final long sequence;
+
+        Snapshot(State state, long sequence) {
+            this.state = state;
+            this.sequence = sequence;
+        }
+    }
+
+    private final String address;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(State.IDLE, 0));
+    private volatile Listener listener;
+
+    public ConnectionState(String address) {
+        this.address = address;
+    }
+
+    /**
+     * @param listener  Gets the transitions from now on, null for none
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public State get() {
+        return current.get().state;
+    }
+
+    /**
+     * Change to the next state if the current state allows it.
+     * @param reason  Why, or null
+     * @return false if the transition isn't allowed from the current state
+     */
+    public boolean transition(State next, String reason) {
+        Snapshot from;
+        Snapshot to;
+        do {
+            from = current.get();
+            if (!from.state.canBecome(next)) {
+                return false;
+            }
+            to = new Snapshot(next, from.sequence + 1);
+        } while (!current.compareAndSet(from, to));
+
+        Listener l = listener;
+        if (l != null) {
+            l.onTransition(new Event(address, from.state, next, to.sequence, System.currentTimeMillis(), reason));
+        }
+        return true;
+    }
+}
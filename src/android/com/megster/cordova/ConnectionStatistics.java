@@ -0,0 +1,109 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of what a connection did since it was created.
+ *
+ * The reader, writer and dispatch threads record into it with atomics
+ * only, nothing on the data path allocates or takes a lock.
+ *
+ * Read latency is the time from the socket read to the subscriber
+ * callback. Only the oldest read that wasn't delivered yet is timed, so a
+ * backlog shows up as a growing latency without stamping every chunk.
+ */
+public class ConnectionStatistics {
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong chunksIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong writesOut = new AtomicLong();
+    private final AtomicLong packetsOut = new AtomicLong();
+    private final AtomicLong framesDelivered = new AtomicLong();
+    private final AtomicLong writeQueuePeak = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong undeliveredSince = new AtomicLong();
+
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+
+    /**
+     * A chunk was read from the socket.
+     * @param delivered  true if a subscriber will be called with it
+     */
+    public void recordRead(int bytes, boolean delivered) {
+        bytesIn.addAndGet(bytes);
+        chunksIn.incrementAndGet();
+        if (delivered) {
+            // 0 means nothing is waiting, a read at exactly 0 ns is timed from 1 ns
+            undeliveredSince.compareAndSet(0, Math.max(System.nanoTime(), 1));
+        }
+    }
+
+    /**
+     * A frame or raw chunk was passed to a subscriber callback.
+     */
+    public void recordFrameDelivered() {
+        framesDelivered.incrementAndGet();
+    }
+
+    /**
+     * Everything that was read was delivered.
+     */
+    public void recordDelivered() {
+        long since = undeliveredSince.getAndSet(0);
+        if (since != 0) {
+            readLatency.record((System.nanoTime() - since) / 1000);
+        }
+    }
+
+    /**
+     * A packet made of one or more writes was written to the socket.
+     */
+    public void recordWrite(int bytes, int writes) {
+        bytesOut.addAndGet(bytes);
+        writesOut.addAndGet(writes);
+        packetsOut.incrementAndGet();
+    }
+
+    public void recordQueueDepth(int depth) {
+        long current;
+        while (depth > (current = writeQueuePeak.get())) {
+            if (writeQueuePeak.compareAndSet(current, depth)) {
+                break;
+            }
+        }
+    }
+
+    public void recordConnect(long millis) {
+        connects.incrementAndGet();
+        connectTime.record(millis);
+    }
+
+    public void recordReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    /**
+     * Read latency is in microseconds, connect time in milliseconds.
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("bytesIn", bytesIn.get());
+        json.put("chunksIn", chunksIn.get());
+        json.put("bytesOut", bytesOut.get());
+        json.put("writesOut", writesOut.get());
+        json.put("packetsOut", packetsOut.get());
+        json.put("framesDelivered", framesDelivered.get());
+        json.put("writeQueuePeak", writeQueuePeak.get());
+        json.put("connects", connects.get());
+        json.put("reconnects", reconnects.get());
+        json.put("readLatency", readLatency.toJSON());
+        json.put("connectTime", connectTime.toJSON());
+        return json;
+    }
+}
@@ -0,0 +1,102 @@
+package com.megster.cordova;
+
+import java.util.Arrays;
+
+/**
+ * Finds delimited frames in a {@link ByteRingBuffer} without rescanning.
+ *
+ * The scanner remembers how far it got in the stream and how much of the
+ * delimiter it had matched (Knuth-Morris-Pratt), so every byte is looked at
+ * once no matter how many chunks a frame arrives in. Positions are absolute
+ * stream positions, if someone else consumes data from the buffer the
+ * scanner notices and picks up at the new front.
+ */
+public class DelimiterScanner {
+
+    private static final int CHUNK_SIZE = 256;
+
+    private final byte[] delimiter;
+    private final int[] fallback;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private long scanPosition;  // stream position of the next byte to look at
+    private int matched;        // delimiter bytes matched just before scanPosition
+
+    public DelimiterScanner(byte[] delimiter) {
+        this.delimiter = delimiter.clone();
+        this.fallback = new int[delimiter.length];
+
+        // KMP failure function, fallback[i] is the length of the longest proper
+        // prefix of delimiter[0..i] that is also a suffix of it
+        for (int i = 1, k = 0; i < delimiter.length; i++) {
+            while (k > 0 && delimiter[i] != delimiter[k]) {
+                k = fallback[k - 1];
+            }
+            if (delimiter[i] == delimiter[k]) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+    }
+
+    public boolean matches(byte[] other) {
+        return Arrays.equals(delimiter, other);
+    }
+
+    /**
+     * Look for the end of the first frame in the buffer. Only bytes that
+     * arrived since the last call are scanned.
+     *
+     * The caller is expected to consume the returned number of bytes while
+     * still holding the buffer's lock.
+     *
+     * @return the length of the first frame including the delimiter, or -1
+     */
+    public int scan(ByteRingBuffer buffer) {
+        if (delimiter.length == 0) {
+            return -1;
+        }
+
+        synchronized (buffer) {
+            long start = buffer.position();
+            long end = start + buffer.available();
+
+            // data we matched against was consumed or cleared, start over at the front
+            if (scanPosition - matched < start || scanPosition > end) {
+                scanPosition = start;
+                matched = 0;
+            }
+
+            while (scanPosition < end) {
+                int count = buffer.peek((int) (scanPosition - start), chunk, 0, CHUNK_SIZE);
+                for (int i = 0; i < count; i++) {
+                    byte b = chunk[i];
+                    while (matched > 0 && b != delimiter[matched]) {
+                        matched = fallback[matched - 1];
+                    }
+                    if (b == delimiter[matched]) {
+                        matched++;
+                    }
+                    if (matched == delimiter.length) {
+                        scanPosition += i + 1;
+                        matched = 0;
+                        return (int) (scanPosition - start);
+                    }
+                }
+                scanPosition += count;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Don't look at the bytes before a stream position, e.g. data that was
+     * in the buffer before a request was written.
+     */
+    public void skipTo(long position) {
+        if (scanPosition < position) {
+            scanPosition = position;
+            matched = 0;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The JSON for the bonded devices, so list doesn't ask the Bluetooth
+ * service for the bonded devices and for the name and class of each of
+ * them every time.
+ *
+ * A device is built once and kept by address until a broadcast says its
+ * bond, name or class changed. The list is kept until the bonded devices
+ * change, the adapter is switched on or off or a device in it changed, and
+ * is then rebuilt from the devices that are still cached. Name and class
+ * changes of other devices, which an inquiry reports all the time, leave
+ * it alone.
+ */
+class DeviceInfoCache extends BroadcastReceiver {
+
+    private final Context context;
+    private final BluetoothAdapter adapter;
+    private final Map<String, JSONObject> devices = new HashMap<>();
+
+    private JSONArray bondedDevices;
+    // bumped by every invalidation, JSON built across one is not kept
+    private int generation;
+
+    DeviceInfoCache(Context context, BluetoothAdapter adapter) {
+        this.context = context;
+        this.adapter = adapter;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_CLASS_CHANGED);
+        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
+        context.registerReceiver(this, filter);
+    }
+
+    void close() {
+        context.unregisterReceiver(this);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        synchronized (this) {
+            // only listed devices are cached
+            boolean listed = device != null && devices.remove(device.getAddress()) != null;
+            if (listed || BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)
+                    || BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
+                bondedDevices = null;
+                generation++;
+            }
+        }
+    }
+
+    /**
+     * @return the bonded devices as list reports them. The array is shared, don't modify it.
+     */
+    JSONArray bondedDevices() throws JSONException {
+        int built;
+        synchronized (this) {
+            if (bondedDevices != null) {
+                return bondedDevices;
+            }
+            built = generation;
+        }
+
+        JSONArray list = new JSONArray();
+        Set<BluetoothDevice> bonded = adapter.getBondedDevices();
+        if (bonded != null) {
+            for (BluetoothDevice device : bonded) {
+                list.put(device(device));
+            }
+        }
+
+        synchronized (this) {
+            if (generation == built) {
+                bondedDevices = list;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return the JSON for a device, built on the first call for its address
+     */
+    JSONObject device(BluetoothDevice device) throws JSONException {
+        String address = device.getAddress();
+        JSONObject json;
+        int built;
+        synchronized (this) {
+            json = devices.get(address);
+            built = generation;
+        }
+        if (json == null) {
+            json = new JSONObject();
+            json.put("name", device.getName());
+            json.put("address", address);
+            json.put("id", address);
+            BluetoothClass bluetoothClass = device.getBluetoothClass();
+            if (bluetoothClass != null) {
+                json.put("class", bluetoothClass.getDeviceClass());
+            }
+            synchronized (this) {
+                if (generation == built) {
+                    devices.put(address, json);
+                }
+            }
+        }
+        return json;
+    }
+}
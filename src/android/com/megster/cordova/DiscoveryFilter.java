@@ -0,0 +1,78 @@
+package com.megster.cordova;
+
+import org.json.JSONObject;
+
+/**
+ * Which devices a discovery reports, and when it can stop early.
+ *
+ * A device matches when it passes every filter that is set. The name
+ * filters are checked against the name the device reported so far, so a
+ * device that shows up without a name can still match on a later sighting.
+ */
+public class DiscoveryFilter {
+
+    public static final int ANY_CLASS = -1;
+
+    private final String name;
+    private final String namePrefix;
+    private final int deviceClass;
+    private final int majorDeviceClass;
+    private final int maxDevices;
+
+    /**
+     * @param name  Exact device name, or null for any
+     * @param namePrefix  Start of the device name, or null for any
+     * @param deviceClass  Device class, or ANY_CLASS
+     * @param majorDeviceClass  Major device class, or ANY_CLASS
+     * @param maxDevices  Stop once this many devices matched, 0 to run the full inquiry
+     */
+    public DiscoveryFilter(String name, String namePrefix, int deviceClass, int majorDeviceClass, int maxDevices) {
+        if (maxDevices < 0) {
+            throw new IllegalArgumentException("Invalid maxDevices " + maxDevices);
+        }
+        this.name = name;
+        this.namePrefix = namePrefix;
+        this.deviceClass = deviceClass;
+        this.majorDeviceClass = majorDeviceClass;
+        this.maxDevices = maxDevices;
+    }
+
+    /**
+     * @param options  name, namePrefix, deviceClass, majorDeviceClass and maxDevices, all optional
+     */
+    public static DiscoveryFilter fromOptions(JSONObject options) {
+        if (options == null) {
+            options = new JSONObject();
+        }
+        return new DiscoveryFilter(
+                emptyToNull(options.optString("name")),
+                emptyToNull(options.optString("namePrefix")),
+                options.optInt("deviceClass", ANY_CLASS),
+                options.optInt("majorDeviceClass", ANY_CLASS),
+                options.optInt("maxDevices", 0));
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    public boolean matches(String deviceName, int deviceClass, int majorDeviceClass) {
+        if (name != null && !name.equals(deviceName)) {
+            return false;
+        }
+        if (namePrefix != null && (deviceName == null || !deviceName.startsWith(namePrefix))) {
+            return false;
+        }
+        if (this.deviceClass != ANY_CLASS && this.deviceClass != deviceClass) {
+            return false;
+        }
+        return this.majorDeviceClass == ANY_CLASS || this.majorDeviceClass == majorDeviceClass;
+    }
+
+    /**
+     * @return true if a discovery that matched this many devices can stop
+     */
+    public boolean isSatisfied(int matched) {
+        return maxDevices > 0 && matched >= maxDevices;
+    }
+}
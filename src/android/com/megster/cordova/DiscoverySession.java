@@ -0,0 +1,202 @@
+package com.megster.cordova;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One run of discoverUnpaired.
+ *
+ * Android reports a device every time the inquiry sees it, so devices are
+ * kept by address: the listener hears about a device once, and later
+ * sightings only update its rssi and name. The name and class come from
+ * the broadcast, not from the device, which would be a call into the
+ * Bluetooth service for each sighting. Once the filter is satisfied the
+ * discovery is cancelled and the success callback is called right away,
+ * instead of after the full inquiry.
+ *
+ * A cancelled inquiry reports that it finished some time later, possibly
+ * after the next session registered. So a session only finishes on a
+ * discovery finished broadcast once its own inquiry started.
+ */
+class DiscoverySession extends BroadcastReceiver {
+
+    private static final String TAG = "BluetoothSerial";
+
+    private final Context context;
+    private final BluetoothAdapter adapter;
+    private final DiscoveryFilter filter;
+    private final CallbackContext callbackContext;
+    private final CallbackContext listener;
+
+    private final Map<String, JSONObject> devices = new LinkedHashMap<>();
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * @param listener  Notified of each matching device as it is found, may be null
+     */
+    DiscoverySession(Context context, BluetoothAdapter adapter, DiscoveryFilter filter,
+                     CallbackContext callbackContext, CallbackContext listener) {
+        this.context = context;
+        this.adapter = adapter;
+        this.filter = filter;
+        this.callbackContext = callbackContext;
+        this.listener = listener;
+    }
+
+    /**
+     * @param takeOver  The inquiry of the session before is still running and is taken over
+     */
+    void start(boolean takeOver) {
+        synchronized (this) {
+            started = takeOver;
+        }
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(BluetoothDevice.ACTION_FOUND);
+        intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_STARTED);
+        intentFilter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+        context.registerReceiver(this, intentFilter);
+
+        if (!adapter.startDiscovery()) {
+            synchronized (this) {
+                finished = true;
+            }
+            context.unregisterReceiver(this);
+            callbackContext.error("Unable to start discovery");
+        }
+    }
+
+    /**
+     * Stop early, reporting the devices found so far.
+     */
+    void stop() {
+        adapter.cancelDiscovery();
+        finish();
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        if (BluetoothDevice.ACTION_FOUND.equals(action)) {
+            found(intent);
+        } else if (BluetoothAdapter.ACTION_DISCOVERY_STARTED.equals(action)) {
+            synchronized (this) {
+                started = true;
+            }
+        } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+            boolean ours;
+            synchronized (this) {
+                ours = started;
+            }
+            if (ours) {
+                finish();
+            } else if (LogLevel.debug()) {
+                Log.d(TAG, "Ignoring the end of an earlier discovery");
+            }
+        }
+    }
+
+    /**
+     * @return true until the session reported its devices, its inquiry may still run then
+     */
+    synchronized boolean isRunning() {
+        return !finished;
+    }
+
+    private void found(Intent intent) {
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+        BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+        int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+        String address = device.getAddress();
+
+        JSONObject json;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            try {
+                json = devices.get(address);
+                if (json != null) {
+                    // seen before, keep the latest reading
+                    if (name != null) {
+                        json.put("name", name);
+                    }
+                    if (rssi != Short.MIN_VALUE) {
+                        json.put("rssi", rssi);
+                    }
+                    return;
+                }
+
+                int deviceClass = bluetoothClass != null ? bluetoothClass.getDeviceClass() : DiscoveryFilter.ANY_CLASS;
+                int majorDeviceClass = bluetoothClass != null ? bluetoothClass.getMajorDeviceClass() : DiscoveryFilter.ANY_CLASS;
+                if (!filter.matches(name, deviceClass, majorDeviceClass)) {
+                    // not kept, a later sighting with a name may still match
+                    return;
+                }
+
+                json = new JSONObject();
+                json.put("name", name);
+                json.put("address", address);
+                json.put("id", address);
+                if (bluetoothClass != null) {
+                    json.put("class", deviceClass);
+                }
+                if (rssi != Short.MIN_VALUE) {
+                    json.put("rssi", rssi);
+                }
+                devices.put(address, json);
+            } catch (JSONException e) {
+                // This shouldn't happen, log and ignore
+                if (LogLevel.error()) Log.e(TAG, "Problem converting device to JSON", e);
+                return;
+            }
+        }
+
+        if (listener != null) {
+            PluginResult result = new PluginResult(PluginResult.Status.OK, json);
+            result.setKeepCallback(true);
+            listener.sendPluginResult(result);
+        }
+
+        boolean satisfied;
+        synchronized (this) {
+            satisfied = filter.isSatisfied(devices.size());
+        }
+        if (satisfied) {
+            if (LogLevel.debug()) Log.d(TAG, "Discovery found " + devices.size() + " devices, stopping early");
+            stop();
+        }
+    }
+
+    /**
+     * Report the devices found so far, leaving the inquiry running.
+     */
+    void finish() {
+        JSONArray result;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            result = new JSONArray(devices.values());
+        }
+        context.unregisterReceiver(this);
+        callbackContext.success(result);
+    }
+}
@@ -0,0 +1,110 @@
+package com.megster.cordova;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects frames for a subscriber so several of them can be sent to
+ * JavaScript in one bridge call.
+ *
+ * String frames are handed out as a list. Binary frames are packed into one
+ * array: a little-endian uint32 frame count, one little-endian uint32 end
+ * offset per frame (relative to the start of the payload), then the frames
+ * back to back.
+ */
+public class FrameBatch {
+
+    public static final int DEFAULT_INTERVAL_MILLIS = 20;
+
+    private final int maxFrames;
+    private final long intervalMillis;
+
+    private final List<String> strings = new ArrayList<>();
+    private byte[] payload = new byte[1024];
+    private int payloadLength;
+    private int[] ends = new int[16];
+    private int frameCount;
+
+    /**
+     * @param maxFrames  The batch is full once it has this many frames
+     * @param intervalMillis  How long the first frame of a batch may wait
+     */
+    public FrameBatch(int maxFrames, long intervalMillis) {
+        this.maxFrames = maxFrames;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return true if the batch is full and should be sent
+     */
+    public synchronized boolean add(String frame) {
+        strings.add(frame);
+        return strings.size() >= maxFrames;
+    }
+
+    /**
+     * @return true if the batch is full and should be sent
+     */
+    public synchronized boolean add(byte[] frame, int offset, int length) {
+        if (payloadLength + length > payload.length) {
+            byte[] grown = new byte[Math.max(payload.length * 2, payloadLength + length)];
+            System.arraycopy(payload, 0, grown, 0, payloadLength);
+            payload = grown;
+        }
+        if (frameCount == ends.length) {
+            int[] grown = new int[ends.length * 2];
+            System.arraycopy(ends, 0, grown, 0, frameCount);
+            ends = grown;
+        }
+
+        System.arraycopy(frame, offset, payload, payloadLength, length);
+        payloadLength += length;
+        ends[frameCount++] = payloadLength;
+        return frameCount >= maxFrames;
+    }
+
+    public synchronized boolean isEmpty() {
+        return strings.isEmpty() && frameCount == 0;
+    }
+
+    /**
+     * Remove and return the string frames.
+     */
+    public synchronized List<String> takeStrings() {
+        List<String> frames = new ArrayList<>(strings);
+        strings.clear();
+        return frames;
+    }
+
+    /**
+     * Remove the binary frames and return them packed, or null if there are none.
+     */
+    public synchronized byte[] takeBytes() {
+        if (frameCount == 0) {
+            return null;
+        }
+
+        int header = 4 + frameCount * 4;
+        byte[] packed = new byte[header + payloadLength];
+        putInt(packed, 0, frameCount);
+        for (int i = 0; i < frameCount; i++) {
+            putInt(packed, 4 + i * 4, ends[i]);
+        }
+        System.arraycopy(payload, 0, packed, header, payloadLength);
+
+        frameCount = 0;
+        payloadLength = 0;
+        return packed;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
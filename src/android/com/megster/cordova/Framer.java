@@ -0,0 +1,318 @@
+package com.megster.cordova;
+
+import org.json.JSONObject;
+
+/**
+ * Cuts a byte stream into frames for raw subscribers.
+ *
+ * A framer takes complete frames from the front of a {@link ByteRingBuffer}
+ * and leaves partial ones there until the rest arrives. The decoded frame is
+ * put into {@link #frame()}, which is reused for the next frame, so the
+ * caller copies what it keeps.
+ *
+ * Framers are built from the framing option of subscribeRawData:
+ * <pre>
+ * {type: "fixed", size: 32}
+ * {type: "lengthPrefixed", lengthOffset: 0, lengthSize: 2, littleEndian: false,
+ *  lengthAdjust: 0, stripHeader: false, maxLength: 65536}
+ * {type: "cobs"}
+ * {type: "slip"}
+ * </pre>
+ */
+public abstract class Framer {
+
+    public static final int DEFAULT_MAX_LENGTH = 65536;
+
+    protected byte[] frame = new byte[64];
+
+    /**
+     * Take the next complete frame from the buffer.
+     * @return the length of the frame in frame(), or -1 if there is no complete frame
+     */
+    public abstract int next(ByteRingBuffer buffer);
+
+    /**
+     * @return the fewest bytes the longest valid frame takes in the stream,
+     *         a buffer that holds less can never complete such a frame
+     */
+    public abstract long minBufferSize();
+
+    /**
+     * @return the array holding the last frame, valid until the next call to next()
+     */
+    public byte[] frame() {
+        return frame;
+    }
+
+    protected void ensureFrameCapacity(int length) {
+        if (frame.length < length) {
+            frame = new byte[Math.max(length, frame.length * 2)];
+        }
+    }
+
+    /**
+     * @return the framer for the option, or null if the option is null
+     * @throws IllegalArgumentException if the option is invalid
+     */
+    public static Framer fromOption(JSONObject option) {
+        if (option == null) {
+            return null;
+        }
+
+        String type = option.optString("type", "");
+        if (type.equals("fixed")) {
+            int size = option.optInt("size", 0);
+            if (size <= 0) {
+                throw new IllegalArgumentException("Invalid frame size " + size);
+            }
+            return new FixedLength(size);
+        } else if (type.equals("lengthPrefixed")) {
+            int lengthOffset = option.optInt("lengthOffset", 0);
+            int lengthSize = option.optInt("lengthSize", 2);
+            int maxLength = option.optInt("maxLength", DEFAULT_MAX_LENGTH);
+            if (lengthOffset < 0 || (lengthSize != 1 && lengthSize != 2 && lengthSize != 4) || maxLength <= 0) {
+                throw new IllegalArgumentException("Invalid length prefix");
+            }
+            return new LengthPrefixed(lengthOffset, lengthSize, option.optBoolean("littleEndian"),
+                    option.optInt("lengthAdjust", 0), option.optBoolean("stripHeader"), maxLength);
+        } else if (type.equals("cobs") || type.equals("slip")) {
+            int maxLength = option.optInt("maxLength", DEFAULT_MAX_LENGTH);
+            if (maxLength <= 0) {
+                throw new IllegalArgumentException("Invalid maxLength " + maxLength);
+            }
+            return type.equals("cobs") ? new Cobs(maxLength) : new Slip(maxLength);
+        }
+        throw new IllegalArgumentException("Unknown framing " + type);
+    }
+
+    /**
+     * Frames of the same size, e.g. 32 byte records.
+     */
+    public static class FixedLength extends Framer {
+        private final int size;
+
+        public FixedLength(int size) {
+            this.size = size;
+            ensureFrameCapacity(size);
+        }
+
+        @Override
+        public long minBufferSize() {
+            return size;
+        }
+
+        @Override
+        public int next(ByteRingBuffer buffer) {
+            synchronized (buffer) {
+                if (buffer.available() < size) {
+                    return -1;
+                }
+                buffer.peek(frame, 0, size);
+                buffer.skip(size);
+                return size;
+            }
+        }
+    }
+
+    /**
+     * Frames with a header that holds the length of the rest of the frame.
+     *
+     * The length field is lengthSize bytes at lengthOffset from the start of
+     * the frame. The bytes after the length field are the field's value plus
+     * lengthAdjust, so a length that counts the whole frame uses a negative
+     * adjustment. A length beyond maxLength means the stream is out of sync,
+     * one byte is dropped and the next byte is tried as the start of a frame.
+     */
+    public static class LengthPrefixed extends Framer {
+        private final int lengthOffset;
+        private final int lengthSize;
+        private final boolean littleEndian;
+        private final int lengthAdjust;
+        private final boolean stripHeader;
+        private final int maxLength;
+        private final byte[] header;
+
+        public LengthPrefixed(int lengthOffset, int lengthSize, boolean littleEndian,
+                              int lengthAdjust, boolean stripHeader, int maxLength) {
+            this.lengthOffset = lengthOffset;
+            this.lengthSize = lengthSize;
+            this.littleEndian = littleEndian;
+            this.lengthAdjust = lengthAdjust;
+            this.stripHeader = stripHeader;
+            this.maxLength = maxLength;
+            this.header = new byte[lengthOffset + lengthSize];
+        }
+
+        @Override
+        public long minBufferSize() {
+            return (long) header.length + maxLength;
+        }
+
+        @Override
+        public int next(ByteRingBuffer buffer) {
+            synchronized (buffer) {
+                while (buffer.available() >= header.length) {
+                    buffer.peek(header, 0, header.length);
+                    long body = readLength() + lengthAdjust;
+                    if (body < 0 || body > maxLength) {
+                        buffer.skip(1);
+                        continue;
+                    }
+
+                    int total = header.length + (int) body;
+                    if (buffer.available() < total) {
+                        return -1;
+                    }
+
+                    int skip = stripHeader ? header.length : 0;
+                    int length = total - skip;
+                    ensureFrameCapacity(length);
+                    buffer.skip(skip);
+                    buffer.peek(frame, 0, length);
+                    buffer.skip(length);
+                    return length;
+                }
+                return -1;
+            }
+        }
+
+        private long readLength() {
+            long value = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                int index = littleEndian ? lengthOffset + lengthSize - 1 - i : lengthOffset + i;
+                value = (value << 8) | (header[index] & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Frames ending in a delimiter byte, decoded by the subclass. Frames that
+     * don't decode or are longer than maxLength are dropped. Encoding at most
+     * doubles a frame, so more than twice maxLength without a delimiter is
+     * dropped too.
+     */
+    private abstract static class Delimited extends Framer {
+        private final DelimiterScanner scanner;
+        private final int maxLength;
+
+        Delimited(byte delimiter, int maxLength) {
+            this.scanner = new DelimiterScanner(new byte[] {delimiter});
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public long minBufferSize() {
+            // at least the frame and its delimiter
+            return (long) maxLength + 1;
+        }
+
+        @Override
+        public int next(ByteRingBuffer buffer) {
+            synchronized (buffer) {
+                while (true) {
+                    int length = scanner.scan(buffer);
+                    if (length < 0) {
+                        // without a delimiter in sight the stream is garbage
+                        if (buffer.available() > maxEncodedLength()) {
+                            buffer.clear();
+                        }
+                        return -1;
+                    }
+
+                    // the encoded frame without its delimiter
+                    int encoded = length - 1;
+                    if (encoded > maxEncodedLength()) {
+                        buffer.skip(length);
+                        continue;
+                    }
+                    ensureFrameCapacity(encoded);
+                    buffer.peek(frame, 0, encoded);
+                    buffer.skip(length);
+
+                    int decoded = decode(frame, encoded);
+                    if (decoded > 0 && decoded <= maxLength) {
+                        return decoded;
+                    }
+                    // empty or invalid frame, e.g. a delimiter that starts a stream
+                }
+            }
+        }
+
+        private int maxEncodedLength() {
+            return 2 * maxLength + 1;
+        }
+
+        /**
+         * Decode the frame in place.
+         * @return the decoded length, 0 to drop the frame
+         */
+        abstract int decode(byte[] data, int length);
+    }
+
+    /**
+     * Consistent Overhead Byte Stuffing, frames end in a 0 byte.
+     */
+    public static class Cobs extends Delimited {
+
+        public Cobs(int maxLength) {
+            super((byte) 0, maxLength);
+        }
+
+        @Override
+        int decode(byte[] data, int length) {
+            int read = 0;
+            int write = 0;
+            while (read < length) {
+                int code = data[read++] & 0xFF;
+                if (code == 0 || read + code - 1 > length) {
+                    return 0;
+                }
+                for (int i = 1; i < code; i++) {
+                    data[write++] = data[read++];
+                }
+                if (code < 0xFF && read < length) {
+                    data[write++] = 0;
+                }
+            }
+            return write;
+        }
+    }
+
+    /**
+     * Serial Line Internet Protocol framing (RFC 1055), frames end in 0xC0.
+     */
+    public static class Slip extends Delimited {
+        private static final int ESC = 0xDB;
+        private static final int ESC_END = 0xDC;
+        private static final int ESC_ESC = 0xDD;
+        private static final byte END = (byte) 0xC0;
+
+        public Slip(int maxLength) {
+            super(END, maxLength);
+        }
+
+        @Override
+        int decode(byte[] data, int length) {
+            int write = 0;
+            for (int read = 0; read < length; read++) {
+                int b = data[read] & 0xFF;
+                if (b == ESC) {
+                    if (++read == length) {
+                        return 0;
+                    }
+                    b = data[read] & 0xFF;
+                    if (b == ESC_END) {
+                        b = END & 0xFF;
+                    } else if (b == ESC_ESC) {
+                        b = ESC;
+                    } else {
+                        return 0;
+                    }
+                }
+                data[write++] = (byte) b;
+            }
+            return write;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.megster.cordova;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in power of two buckets.
+ *
+ * Bucket i counts values from 2^(i-1) up to 2^i - 1, so percentiles are
+ * accurate to a factor of two, which is plenty to tell a 1 ms from a 50 ms
+ * delivery. Recording only updates atomics and doesn't allocate.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return the upper bound of the bucket the percentile falls in
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return count, mean, max and the 50th, 90th and 99th percentile
+     */
+    public JSONObject toJSON() throws JSONException {
+        long total = count.get();
+        JSONObject json = new JSONObject();
+        json.put("count", total);
+        json.put("mean", total == 0 ? 0 : sum.get() / total);
+        json.put("max", max.get());
+        json.put("p50", percentile(50));
+        json.put("p90", percentile(90));
+        json.put("p99", percentile(99));
+        return json;
+    }
+}
@@ -0,0 +1,66 @@
+package com.megster.cordova;
+
+/**
+ * Runtime log level of the plugin, set with the BluetoothSerialLogLevel
+ * preference or the setLogLevel action.
+ *
+ * Log calls are guarded with the checks here, e.g.
+ * {@code if (LogLevel.debug()) Log.d(TAG, "read " + bytes)}, so with the
+ * level off no log strings are built and nothing is sent to logcat.
+ */
+public final class LogLevel {
+
+    public static final int OFF = 0;
+    public static final int ERROR = 1;
+    public static final int WARN = 2;
+    public static final int INFO = 3;
+    public static final int DEBUG = 4;
+
+    private static final String[] NAMES = {"off", "error", "warn", "info", "debug"};
+
+    private static volatile int level = DEBUG;
+
+    private LogLevel() {
+    }
+
+    public static int get() {
+        return level;
+    }
+
+    public static void set(int newLevel) {
+        level = Math.max(OFF, Math.min(DEBUG, newLevel));
+    }
+
+    /**
+     * @param name  off, error, warn, info or debug, ignoring case
+     * @return the level, or -1 if the name is unknown
+     */
+    public static int parse(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static String name(int level) {
+        return NAMES[level];
+    }
+
+    public static boolean debug() {
+        return level >= DEBUG;
+    }
+
+    public static boolean info() {
+        return level >= INFO;
+    }
+
+    public static boolean warn() {
+        return level >= WARN;
+    }
+
+    public static boolean error() {
+        return level >= ERROR;
+    }
+}
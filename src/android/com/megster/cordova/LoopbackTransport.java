@@ -0,0 +1,329 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * An in-process transport for tests and benchmarks, it needs nothing but
+ * the JVM.
+ *
+ * The connection is a pair of pipes. Whatever the device side writes to
+ * {@link #getDeviceOutputStream()} can be read from {@link #getInputStream()}
+ * and what is written to {@link #getOutputStream()} comes out of
+ * {@link #getDeviceInputStream()}.
+ *
+ * The link can be made to behave like a real one:
+ * - latency delays every chunk by a fixed time,
+ * - bandwidth limits the bytes per second, chunks queue up behind each other,
+ * - maxChunkSize splits writes into chunks of 1 to maxChunkSize bytes and a
+ *   read never returns more than one chunk, like data arriving in pieces,
+ * - {@link #disconnect()} drops the link, reads and writes on both sides fail,
+ * - {@link #failConnects(int)} makes the next connects fail.
+ *
+ * Settings apply to the chunks written after they were changed.
+ */
+public class LoopbackTransport implements SerialTransport {
+
+    private final String name;
+    private final Random random;
+
+    private volatile long latencyNanos;
+    private volatile long bytesPerSecond;
+    private volatile int maxChunkSize;
+    private volatile long connectDelayMillis;
+    private int connectFailures;
+
+    private Pipe toDevice;
+    private Pipe fromDevice;
+    private boolean connected;
+
+    public LoopbackTransport() {
+        this("Loopback", 0);
+    }
+
+    /**
+     * @param name  Returned by getName()
+     * @param seed  Seed for the chunk sizes, the same seed splits data the same way
+     */
+    public LoopbackTransport(String name, long seed) {
+        this.name = name;
+        this.random = new Random(seed);
+        newPipes();
+    }
+
+    /**
+     * @param millis  Time between writing a chunk and it being readable on the other side
+     */
+    public void setLatency(long millis) {
+        latencyNanos = millis * 1000000L;
+    }
+
+    /**
+     * @param bytesPerSecond  Speed of the link in both directions, 0 for no limit
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param maxChunkSize  Largest chunk data is split into, 0 to keep writes whole
+     */
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    public void setConnectDelay(long millis) {
+        connectDelayMillis = millis;
+    }
+
+    /**
+     * Make the next connects fail with an IOException.
+     */
+    public synchronized void failConnects(int count) {
+        connectFailures = count;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        long delay = connectDelayMillis;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Connect interrupted");
+            }
+        }
+
+        synchronized (this) {
+            if (connectFailures > 0) {
+                connectFailures--;
+                throw new IOException("Connection refused");
+            }
+            if (toDevice.isClosed() || fromDevice.isClosed()) {
+                newPipes();
+            }
+            connected = true;
+        }
+    }
+
+    private synchronized void newPipes() {
+        toDevice = new Pipe();
+        fromDevice = new Pipe();
+    }
+
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Drop the link as if the device went out of range.
+     */
+    public void disconnect() {
+        fail(new IOException("Connection lost"));
+    }
+
+    @Override
+    public void close() {
+        fail(new IOException("Socket closed"));
+    }
+
+    private void fail(IOException reason) {
+        Pipe in;
+        Pipe out;
+        synchronized (this) {
+            connected = false;
+            in = fromDevice;
+            out = toDevice;
+        }
+        in.fail(reason);
+        out.fail(reason);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new PipeInputStream(false);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new PipeOutputStream(true);
+    }
+
+    /**
+     * @return the stream of what the plugin wrote, it follows the transport across reconnects
+     */
+    public InputStream getDeviceInputStream() {
+        return new PipeInputStream(true);
+    }
+
+    /**
+     * @return the stream the device writes to, it follows the transport across reconnects
+     */
+    public OutputStream getDeviceOutputStream() {
+        return new PipeOutputStream(false);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    private synchronized Pipe pipe(boolean toDevice) {
+        return toDevice ? this.toDevice : this.fromDevice;
+    }
+
+    private int nextChunkSize(int remaining) {
+        int max = maxChunkSize;
+        if (max <= 0) {
+            return remaining;
+        }
+        int size;
+        synchronized (random) {
+            size = 1 + random.nextInt(max);
+        }
+        return Math.min(size, remaining);
+    }
+
+    private class PipeInputStream extends InputStream {
+        private final boolean toDevice;
+
+        PipeInputStream(boolean toDevice) {
+            this.toDevice = toDevice;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return pipe(toDevice).read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return pipe(toDevice).available();
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        private final boolean toDevice;
+
+        PipeOutputStream(boolean toDevice) {
+            this.toDevice = toDevice;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Pipe pipe = pipe(toDevice);
+            while (len > 0) {
+                int chunk = nextChunkSize(len);
+                pipe.write(b, off, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final long due;
+        int position;
+
+        Chunk(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+
+    /**
+     * One direction of the link, a queue of chunks that become readable at their due time.
+     */
+    private class Pipe {
+        private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+        private long linkFreeAt;
+        private IOException failure;
+
+        synchronized boolean isClosed() {
+            return failure != null;
+        }
+
+        synchronized void fail(IOException reason) {
+            if (failure == null) {
+                failure = reason;
+                chunks.clear();
+                notifyAll();
+            }
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (failure != null) {
+                throw new IOException(failure.getMessage());
+            }
+
+            // a chunk is received once it was sent completely and the latency passed
+            long now = System.nanoTime();
+            long start = Math.max(now, linkFreeAt);
+            long rate = bytesPerSecond;
+            linkFreeAt = rate > 0 ? start + len * 1000000000L / rate : start;
+
+            byte[] data = new byte[len];
+            System.arraycopy(b, off, data, 0, len);
+            chunks.add(new Chunk(data, linkFreeAt + latencyNanos));
+            notifyAll();
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                while (true) {
+                    if (failure != null) {
+                        throw new IOException(failure.getMessage());
+                    }
+                    Chunk head = chunks.peek();
+                    if (head == null) {
+                        wait();
+                        continue;
+                    }
+                    long wait = head.due - System.nanoTime();
+                    if (wait > 0) {
+                        wait(wait / 1000000L, (int) (wait % 1000000L));
+                        continue;
+                    }
+
+                    int n = Math.min(len, head.data.length - head.position);
+                    System.arraycopy(head.data, head.position, b, off, n);
+                    head.position += n;
+                    if (head.position == head.data.length) {
+                        chunks.poll();
+                    }
+                    return n;
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Read interrupted");
+            }
+        }
+
+        synchronized int available() {
+            Chunk head = chunks.peek();
+            if (head == null || head.due > System.nanoTime()) {
+                return 0;
+            }
+            return head.data.length - head.position;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.megster.cordova;
+
+import org.json.JSONObject;
+
+import java.util.Random;
+
+/**
+ * How often and how soon a lost connection is reconnected.
+ *
+ * The delay grows exponentially from initialDelay by multiplier up to
+ * maxDelay. Jitter spreads each delay by up to that fraction in either
+ * direction, so several devices that dropped together don't all retry at
+ * the same moment.
+ */
+public class ReconnectPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+    public static final double DEFAULT_JITTER = 0.2;
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final Random random = new Random();
+
+    public ReconnectPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis,
+                           double multiplier, double jitter) {
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = Math.min(Math.max(jitter, 0), 1);
+    }
+
+    /**
+     * Build a policy from the reconnect connect option, which is either true
+     * for the defaults or an object with maxAttempts, initialDelay, maxDelay,
+     * multiplier and jitter.
+     * @return the policy, or null if reconnecting is off
+     * @throws IllegalArgumentException if the option is invalid
+     */
+    public static ReconnectPolicy fromOption(Object option) {
+        if (option == null) {
+            return null;
+        }
+        if (option instanceof Boolean) {
+            if (!(Boolean) option) {
+                return null;
+            }
+            option = new JSONObject();
+        }
+        if (!(option instanceof JSONObject)) {
+            throw new IllegalArgumentException("Invalid reconnect option");
+        }
+
+        JSONObject json = (JSONObject) option;
+        double maxAttempts = number(json, "maxAttempts", DEFAULT_MAX_ATTEMPTS);
+        double initialDelay = number(json, "initialDelay", DEFAULT_INITIAL_DELAY_MILLIS);
+        double maxDelay = number(json, "maxDelay", Math.max(DEFAULT_MAX_DELAY_MILLIS, initialDelay));
+        double multiplier = number(json, "multiplier", DEFAULT_MULTIPLIER);
+        double jitter = number(json, "jitter", DEFAULT_JITTER);
+        if (maxAttempts < 0 || maxAttempts != Math.floor(maxAttempts) || maxAttempts > Integer.MAX_VALUE
+                || initialDelay < 0 || maxDelay < initialDelay || multiplier < 1 || jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid reconnect option");
+        }
+        if (maxAttempts == 0) {
+            return null;
+        }
+        return new ReconnectPolicy((int) maxAttempts, (long) initialDelay, (long) maxDelay, multiplier, jitter);
+    }
+
+    private static double number(JSONObject json, String key, double fallback) {
+        if (!json.has(key)) {
+            return fallback;
+        }
+        Object value = json.opt(key);
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Invalid reconnect " + key);
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt  The attempt number, starting at 1
+     * @return milliseconds to wait before the attempt
+     */
+    public long delayFor(int attempt) {
+        double delay = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+        delay = Math.min(delay, maxDelayMillis);
+
+        double spread;
+        synchronized (random) {
+            spread = 1 - jitter + 2 * jitter * random.nextDouble();
+        }
+        return Math.max(0, Math.round(delay * spread));
+    }
+}
@@ -0,0 +1,167 @@
+package com.megster.cordova;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by all connections, so the thread count doesn't grow with
+ * the number of devices.
+ *
+ * Reader threads poll the connections registered with them: a connection
+ * with bytes available reads them, and a reader whose connections are all
+ * idle sleeps for pollMillis. The sleep doubles while they stay idle, up to
+ * MAX_IDLE_POLL_MILLIS, so quiet connections don't wake the phone 200 times
+ * a second. Writers drain their queue on the writer
+ * threads when there is something to write. Connect attempts run on a
+ * capped executor, the attempts beyond the cap wait their turn.
+ */
+public class SerialIoPool {
+
+    public static final int DEFAULT_IO_THREADS = 2;
+    public static final int DEFAULT_CONNECT_THREADS = 2;
+    public static final int DEFAULT_POLL_MILLIS = 5;
+    public static final int MAX_IDLE_POLL_MILLIS = 50;
+
+    /**
+     * A connection served by a reader thread.
+     */
+    public interface Pollable {
+        /**
+         * Read what is available without blocking. Errors are handled by
+         * the connection, which unregisters itself when it is done.
+         * @return true if something was read
+         */
+        boolean poll();
+
+        /**
+         * poll() threw, the pollable is no longer polled. The connection
+         * fails the way it does on a read error.
+         */
+        void failed(RuntimeException e);
+    }
+
+    private final ReaderThread[] readers;
+    private final ThreadPoolExecutor writeExecutor;
+    private final ThreadPoolExecutor connectExecutor;
+    private final int pollMillis;
+
+    /**
+     * @param ioThreads  Number of reader threads, and of writer threads
+     * @param connectThreads  Number of connect attempts that run at the same time
+     * @param pollMillis  How long a reader sleeps when none of its connections had data,
+     *                    the first time after they had some
+     */
+    public SerialIoPool(int ioThreads, int connectThreads, int pollMillis) {
+        this.pollMillis = pollMillis;
+        readers = new ReaderThread[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            readers[i] = new ReaderThread("BluetoothSerialReader-" + (i + 1));
+            readers[i].start();
+        }
+        writeExecutor = fixedPool(ioThreads, "BluetoothSerialWriter");
+        connectExecutor = fixedPool(connectThreads, "BluetoothSerialConnect");
+    }
+
+    private static ThreadPoolExecutor fixedPool(int threads, final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, name + "-" + count.incrementAndGet());
+                    }
+                });
+        // idle pools don't keep threads around
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public ExecutorService writeExecutor() {
+        return writeExecutor;
+    }
+
+    public ExecutorService connectExecutor() {
+        return connectExecutor;
+    }
+
+    /**
+     * Start polling a connection, on the reader with the fewest connections.
+     */
+    public void register(Pollable pollable) {
+        ReaderThread reader = readers[0];
+        for (ReaderThread candidate : readers) {
+            if (candidate.pollables.size() < reader.pollables.size()) {
+                reader = candidate;
+            }
+        }
+        reader.add(pollable);
+    }
+
+    public void unregister(Pollable pollable) {
+        for (ReaderThread reader : readers) {
+            reader.pollables.remove(pollable);
+        }
+    }
+
+    public void shutdown() {
+        for (ReaderThread reader : readers) {
+            reader.interrupt();
+        }
+        writeExecutor.shutdownNow();
+        connectExecutor.shutdownNow();
+    }
+
+    private class ReaderThread extends Thread {
+        final CopyOnWriteArrayList<Pollable> pollables = new CopyOnWriteArrayList<>();
+
+        ReaderThread(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        synchronized void add(Pollable pollable) {
+            pollables.add(pollable);
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            int sleepMillis = pollMillis;
+            try {
+                while (true) {
+                    // don't spin without connections
+                    synchronized (this) {
+                        while (pollables.isEmpty()) {
+                            wait();
+                        }
+                    }
+
+                    boolean busy = false;
+                    for (Pollable pollable : pollables) {
+                        try {
+                            busy |= pollable.poll();
+                        } catch (RuntimeException e) {
+                            // a broken connection must not stop the others
+                            pollables.remove(pollable);
+                            pollable.failed(e);
+                        }
+                    }
+                    if (busy) {
+                        sleepMillis = pollMillis;
+                    } else {
+                        Thread.sleep(sleepMillis);
+                        sleepMillis = Math.min(sleepMillis * 2, Math.max(pollMillis, MAX_IDLE_POLL_MILLIS));
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.megster.cordova;
+
+import java.nio.charset.Charset;
+
+/**
+ * Turns the bytes in a connection's read buffer into strings, for read,
+ * readUntil and delimiter subscribers.
+ *
+ * Doesn't depend on Android, so the read path can be benchmarked on a
+ * plain JVM.
+ */
+public class SerialReader {
+
+    private final ByteRingBuffer buffer;
+    private volatile CharsetCodec codec;
+    private DelimiterScanner readUntilScanner;
+
+    public SerialReader(ByteRingBuffer buffer, Charset charset) {
+        this.buffer = buffer;
+        this.codec = new CharsetCodec(charset);
+    }
+
+    public Charset charset() {
+        return codec.charset();
+    }
+
+    public void setCharset(Charset charset) {
+        if (!charset.equals(codec.charset())) {
+            codec = new CharsetCodec(charset);
+        }
+    }
+
+    public int available() {
+        return buffer.available();
+    }
+
+    /**
+     * Read all complete characters in the buffer. A character that is only
+     * partially received stays in the buffer until the rest arrives.
+     */
+    public String read() {
+        return codec.decode(buffer, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Read up to and including the delimiter.
+     * @return the data, or an empty String if the delimiter wasn't received yet
+     */
+    public String readUntil(String delimiter) {
+        String data = "";
+        byte[] delimiterBytes = delimiter.getBytes(codec.charset());
+        synchronized (buffer) {
+            // keep the scanner between polls so a partial line isn't rescanned every time
+            if (readUntilScanner == null || !readUntilScanner.matches(delimiterBytes)) {
+                readUntilScanner = new DelimiterScanner(delimiterBytes);
+            }
+            int length = readUntilScanner.scan(buffer);
+            if (length > 0) {
+                data = codec.decode(buffer, length, true);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Take the next frame the scanner finds.
+     * @return the frame including its delimiter, or null if there is no complete frame
+     */
+    public String nextFrame(DelimiterScanner scanner) {
+        synchronized (buffer) {
+            int length = scanner.scan(buffer);
+            if (length <= 0) {
+                return null;
+            }
+            return codec.decode(buffer, length, true);
+        }
+    }
+
+    public void clear() {
+        buffer.clear();
+    }
+}
@@ -0,0 +1,44 @@
+package com.megster.cordova;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The link a connection runs over.
+ *
+ * BluetoothSerialService connects and reads and writes through this
+ * interface only, so the same code runs over an RFCOMM socket on a phone
+ * or over a {@link LoopbackTransport} on a plain JVM.
+ *
+ * connect() may be called again after the transport was closed, e.g. to
+ * reconnect a lost connection.
+ */
+public interface SerialTransport {
+
+    /**
+     * Open the connection. Blocks until the connection is made.
+     * @throws IOException if the connection can't be made or the transport was closed meanwhile
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return the stream of data from the device, only valid after connect()
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return the stream of data to the device, only valid after connect()
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Close the connection. A blocked connect() or read fails with an IOException.
+     */
+    void close() throws IOException;
+
+    /**
+     * @return a name for the remote end, for logging
+     */
+    String getName();
+}
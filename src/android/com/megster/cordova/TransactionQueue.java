@@ -0,0 +1,219 @@
+package com.megster.cordova;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request/response transactions of a connection.
+ *
+ * A transaction writes a request and takes its response from the read
+ * buffer, either up to and including a terminator or a fixed number of
+ * bytes. Only bytes that arrived after the request was written are matched,
+ * older ones are skipped. Devices answer in the order they were asked, so
+ * only the oldest written transaction is matched. Up to depth transactions
+ * are written before the first response is in, the rest wait their turn.
+ *
+ * A written transaction that times out keeps its place until its late
+ * response arrives, which is then skipped, or until it expires. Otherwise
+ * the late response would be taken by the next transaction and every
+ * response after it would go to the wrong request.
+ *
+ * Not thread safe, the connection only uses it on its dispatch thread.
+ */
+public class TransactionQueue {
+
+    public static final int DEFAULT_DEPTH = 1;
+
+    public interface Callback {
+        void onResponse(byte[] response);
+
+        void onError(String message);
+    }
+
+    public static class Transaction {
+        private final byte[] request;
+        private final DelimiterScanner terminator;
+        private final int length;
+        private final Callback callback;
+        private byte[] response;
+        // stream position of the end of the buffer when the request was written
+        private long start;
+        private boolean timedOut;
+
+        /**
+         * @param terminator  The response ends with these bytes, or null if it is length bytes long
+         * @param length  The length of the response if there is no terminator
+         */
+        public Transaction(byte[] request, byte[] terminator, int length, Callback callback) {
+            if (terminator == null ? length <= 0 : terminator.length == 0) {
+                throw new IllegalArgumentException("A response needs a terminator or a length");
+            }
+            this.request = request;
+            this.terminator = terminator == null ? null : new DelimiterScanner(terminator);
+            this.length = length;
+            this.callback = callback;
+        }
+
+        public byte[] getRequest() {
+            return request;
+        }
+
+        public Callback getCallback() {
+            return callback;
+        }
+
+        /**
+         * @return the response once the transaction was returned by poll()
+         */
+        public byte[] getResponse() {
+            return response;
+        }
+
+        /**
+         * The request is written now, the response is what arrives after this.
+         */
+        public void requestWritten(ByteRingBuffer buffer) {
+            synchronized (buffer) {
+                start = buffer.position() + buffer.available();
+            }
+        }
+
+        /**
+         * @return true if the buffer holds the whole response, which is then
+         *         taken from it along with the older bytes in front of it
+         */
+        boolean takeResponse(ByteRingBuffer buffer) {
+            synchronized (buffer) {
+                int skip = (int) Math.max(0, start - buffer.position());
+                int responseLength;
+                if (terminator != null) {
+                    terminator.skipTo(buffer.position() + skip);
+                    int end = terminator.scan(buffer);
+                    responseLength = end < 0 ? -1 : end - skip;
+                } else {
+                    responseLength = buffer.available() - skip >= length ? length : -1;
+                }
+                if (responseLength < 0) {
+                    return false;
+                }
+                buffer.skip(skip);
+                if (timedOut) {
+                    buffer.skip(responseLength);
+                } else {
+                    response = buffer.read(responseLength);
+                }
+                return true;
+            }
+        }
+    }
+
+    private final ArrayDeque<Transaction> written = new ArrayDeque<>();
+    private final ArrayDeque<Transaction> waiting = new ArrayDeque<>();
+    private int depth = DEFAULT_DEPTH;
+
+    /**
+     * @param depth  How many transactions can wait for their response at the same time
+     */
+    public void setDepth(int depth) {
+        this.depth = Math.max(1, depth);
+    }
+
+    public boolean isEmpty() {
+        return written.isEmpty() && waiting.isEmpty();
+    }
+
+    public int size() {
+        return written.size() + waiting.size();
+    }
+
+    /**
+     * @return true if the request should be written now, otherwise it is
+     *         returned by nextToWrite() once earlier transactions are done
+     */
+    public boolean add(Transaction transaction) {
+        if (waiting.isEmpty() && written.size() < depth) {
+            written.add(transaction);
+            return true;
+        }
+        waiting.add(transaction);
+        return false;
+    }
+
+    /**
+     * Late responses of timed out transactions are skipped on the way.
+     * @return the oldest transaction if its response is complete, or null
+     */
+    public Transaction poll(ByteRingBuffer buffer) {
+        Transaction oldest;
+        while ((oldest = written.peek()) != null && oldest.takeResponse(buffer)) {
+            written.poll();
+            if (!oldest.timedOut) {
+                return oldest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a waiting transaction that can be written now, or null
+     */
+    public Transaction nextToWrite() {
+        if (!waiting.isEmpty() && written.size() < depth) {
+            Transaction next = waiting.poll();
+            written.add(next);
+            return next;
+        }
+        return null;
+    }
+
+    /**
+     * A transaction timed out. One that wasn't written yet is removed, a
+     * written one keeps its place to skip its late response, see expire().
+     * @return false if it is already done or timed out before
+     */
+    public boolean timeout(Transaction transaction) {
+        if (waiting.remove(transaction)) {
+            return true;
+        }
+        if (!transaction.timedOut && written.contains(transaction)) {
+            transaction.timedOut = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Give up on the late response of a timed out transaction, the device
+     * didn't answer it at all.
+     * @return false if the response came in the meantime
+     */
+    public boolean expire(Transaction transaction) {
+        return transaction.timedOut && written.remove(transaction);
+    }
+
+    /**
+     * Remove a transaction that failed to write.
+     * @return false if it is already done
+     */
+    public boolean remove(Transaction transaction) {
+        return written.remove(transaction) || waiting.remove(transaction);
+    }
+
+    /**
+     * Remove all transactions, e.g. when the connection is closed.
+     * @return the removed transactions that didn't time out, oldest first
+     */
+    public List<Transaction> clear() {
+        List<Transaction> removed = new ArrayList<>(size());
+        for (Transaction transaction : written) {
+            if (!transaction.timedOut) {
+                removed.add(transaction);
+            }
+        }
+        removed.addAll(waiting);
+        written.clear();
+        waiting.clear();
+        return removed;
+    }
+}
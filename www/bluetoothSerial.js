@@ -1,13 +1,30 @@
 /*global cordova*/
 module.exports = {
 
-    connect: function (macAddress, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "connect", [macAddress]);
+    // options (Android only) e.g. { bufferSize: 65536, overflow: 'dropOldest' }
+    connect: function (macAddress, success, failure, options) {
+        cordova.exec(success, failure, "BluetoothSerial", "connect", [macAddress, options || {}]);
     },
 
     // Android only - see http://goo.gl/1mFjZY
-    connectInsecure: function (macAddress, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "connectInsecure", [macAddress]);
+    connectInsecure: function (macAddress, success, failure, options) {
+        cordova.exec(success, failure, "BluetoothSerial", "connectInsecure", [macAddress, options || {}]);
+    },
+
+    // connects to several devices, success is called as each one finishes (Android)
+    // options e.g. { concurrency: 3, timeout: 15000, secure: true } plus connect options
+    connectAll: function (addresses, success, failure, options) {
+        cordova.exec(success, failure, "BluetoothSerial", "connectAll", [addresses, options || {}]);
+    },
+
+    // accepts connections from other devices until stopListening, success is called for each one (Android)
+    // options e.g. { name: "Hub", uuid: "...", secure: true, maxConnections: 7 } plus connect options
+    listen: function (success, failure, options) {
+        cordova.exec(success, failure, "BluetoothSerial", "listen", [options || {}]);
+    },
+
+    stopListening: function (success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "stopListening", []);
     },
 
     disconnect: function (macAddress, success, failure) {
@@ -28,18 +45,19 @@ module.exports = {
     },
 
     // the number of bytes of data available to read is passed to the success function
-    available: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "available", []);
+    // pass macAddress to get the number for one device instead of an array for all (Android only)
+    available: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "available", [macAddress || ""]);
     },
 
     // read all the data in the buffer
-    read: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "read", []);
+    read: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "read", [macAddress || ""]);
     },
 
     // reads the data in the buffer up to and including the delimiter
-    readUntil: function (delimiter, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "readUntil", [delimiter]);
+    readUntil: function (delimiter, success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "readUntil", [delimiter, macAddress || ""]);
     },
 
     // writes data to the bluetooth serial port
@@ -61,20 +79,49 @@ module.exports = {
         cordova.exec(success, failure, "BluetoothSerial", "write", [data, macAddress]);
     },
 
+    // writes a request and calls success with the response as an ArrayBuffer (Android)
+    // response is the terminator of the response, a string or byte array, or its length in bytes
+    transact: function (data, response, timeout, success, failure, macAddress) {
+        var isString = typeof data === 'string';
+
+        if (data instanceof Array) {
+            data = new Uint8Array(data).buffer;
+        } else if (data instanceof Uint8Array) {
+            data = data.buffer;
+        }
+
+        if (response instanceof Uint8Array) {
+            response = Array.prototype.slice.call(response);
+        }
+
+        cordova.exec(success, failure, "BluetoothSerial", "transact", [data, isString, response, timeout || 0, macAddress || ""]);
+    },
+
     // calls the success callback when new data is available
-    subscribe: function (delimiter, success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "subscribe", [delimiter]);
+    // options (Android only) e.g. { address: macAddress, tagged: true } to
+    // subscribe to one device and get the address as second callback argument,
+    // { batchSize: 20, batchInterval: 50 } to get frames over the bridge in batches
+    subscribe: function (delimiter, success, failure, options) {
+        var successWrapper = success;
+        if (isBatched(options)) {
+            successWrapper = function(frames, address) {
+                for (var i = 0; i < frames.length; i++) {
+                    success(frames[i], address);
+                }
+            };
+        }
+        cordova.exec(successWrapper, failure, "BluetoothSerial", "subscribe", [delimiter, options || {}]);
     },
 
     // removes data subscription
-    unsubscribe: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "unsubscribe", []);
+    unsubscribe: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribe", [macAddress || ""]);
     },
 
     // calls the success callback when new data is available with an ArrayBuffer
-    subscribeRawData: function (success, failure) {
+    subscribeRawData: function (success, failure, options) {
 
-        successWrapper = function(data) {
+        var successWrapper = function(data, address) {
             // Windows Phone flattens an array of one into a number which
             // breaks the API. Stuff it back into an ArrayBuffer.
             if (typeof data === 'number') {
@@ -82,19 +129,29 @@ module.exports = {
                 a[0] = data;
                 data = a.buffer;
             }
-            success(data);
+            success(data, address);
         };
-        cordova.exec(successWrapper, failure, "BluetoothSerial", "subscribeRaw", []);
+
+        if (isBatched(options)) {
+            var singleFrame = successWrapper;
+            successWrapper = function(batch, address) {
+                var frames = unpackFrames(batch);
+                for (var i = 0; i < frames.length; i++) {
+                    singleFrame(frames[i], address);
+                }
+            };
+        }
+        cordova.exec(successWrapper, failure, "BluetoothSerial", "subscribeRaw", [options || {}]);
     },
 
     // removes data subscription
-    unsubscribeRawData: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeRaw", []);
+    unsubscribeRawData: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeRaw", [macAddress || ""]);
     },
 
     // clears the data buffer
-    clear: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "clear", []);
+    clear: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "clear", [macAddress || ""]);
     },
 
     // reads the RSSI of the *connected* peripherial
@@ -110,8 +167,9 @@ module.exports = {
         cordova.exec(success, failure, "BluetoothSerial", "enable", []);
     },
 
-    discoverUnpaired: function (success, failure) {
-        cordova.exec(success, failure, "BluetoothSerial", "discoverUnpaired", []);
+    // options: name, namePrefix, deviceClass, majorDeviceClass, maxDevices (Android)
+    discoverUnpaired: function (success, failure, options) {
+        cordova.exec(success, failure, "BluetoothSerial", "discoverUnpaired", [options || {}]);
     },
 
     setDeviceDiscoveredListener: function (notify) {
@@ -131,11 +189,58 @@ module.exports = {
 
     setDiscoverable: function (discoverableDuration) {
         cordova.exec(null, null, "BluetoothSerial", "setDiscoverable", [discoverableDuration]);
+    },
+
+    // counters of a connection, or an array for all connections (Android)
+    getStatistics: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "getStatistics", [macAddress || ""]);
+    },
+
+    // calls success with the statistics every interval milliseconds (Android)
+    subscribeStatistics: function (interval, success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "subscribeStatistics", [interval, macAddress || ""]);
+    },
+
+    unsubscribeStatistics: function (success, failure, macAddress) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeStatistics", [macAddress || ""]);
+    },
+
+    // calls success with every state change of every connection (Android)
+    subscribeConnectionEvents: function (success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "subscribeConnectionEvents", []);
+    },
+
+    unsubscribeConnectionEvents: function (success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "unsubscribeConnectionEvents", []);
+    },
+
+    // off, error, warn, info or debug (Android)
+    setLogLevel: function (level, success, failure) {
+        cordova.exec(success, failure, "BluetoothSerial", "setLogLevel", [level]);
     }
 
 
 };
 
+var isBatched = function(options) {
+    return !!options && (options.batchSize > 1 || options.batchInterval > 0);
+};
+
+// splits a batch of binary frames: uint32 count, uint32 end offset per frame, frames
+var unpackFrames = function(buffer) {
+    var view = new DataView(buffer);
+    var count = view.getUint32(0, true);
+    var payload = 4 + count * 4;
+    var start = payload;
+    var frames = [];
+    for (var i = 0; i < count; i++) {
+        var end = payload + view.getUint32(4 + i * 4, true);
+        frames.push(buffer.slice(start, end));
+        start = end;
+    }
+    return frames;
+};
+
 var stringToArrayBuffer = function(str) {
     var ret = new Uint8Array(str.length);
     for (var i = 0; i < str.length; i++) {